@@ -0,0 +1,64 @@
+package dp.s3crypto;
+
+import java.security.GeneralSecurityException;
+import java.security.Key;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Wraps PSKs with a symmetric master key using AES Key Wrap (RFC 3394).
+ * Unwrapping is a few AES block operations, much cheaper than an RSA private
+ * key operation, which makes this the better choice for many small objects
+ * when the master key can be shared by every reader and writer.
+ */
+public class AESKeyWrapper implements KeyWrapper, CipherProvidersAware {
+
+    public static final String ALGORITHM = "AES-KW";
+
+    private SecretKey masterKey;
+    private CipherProviders cipherProviders = new CipherProviders();
+
+    public AESKeyWrapper(SecretKey masterKey) {
+        this.masterKey = masterKey;
+    }
+
+    public AESKeyWrapper(byte[] masterKey) {
+        this(new SecretKeySpec(masterKey, "AES"));
+    }
+
+    @Override
+    public void setCipherProviders(CipherProviders cipherProviders) {
+        this.cipherProviders = cipherProviders;
+    }
+
+    @Override
+    public String getAlgorithm() {
+        return ALGORITHM;
+    }
+
+    @Override
+    public byte[] wrapKey(byte[] psk) throws GeneralSecurityException {
+        return wrap(cipherProviders, masterKey, psk);
+    }
+
+    @Override
+    public byte[] unwrapKey(byte[] wrappedKey) throws GeneralSecurityException {
+        return unwrap(cipherProviders, masterKey, wrappedKey);
+    }
+
+    static byte[] wrap(CipherProviders cipherProviders, Key kek, byte[] psk) throws GeneralSecurityException {
+        Cipher cipher = cipherProviders.getCipher(CipherProviders.AES_WRAP_TRANSFORMATION);
+
+        cipher.init(Cipher.WRAP_MODE, kek);
+        return cipher.wrap(new SecretKeySpec(psk, "AES"));
+    }
+
+    static byte[] unwrap(CipherProviders cipherProviders, Key kek, byte[] wrappedKey) throws GeneralSecurityException {
+        Cipher cipher = cipherProviders.getCipher(CipherProviders.AES_WRAP_TRANSFORMATION);
+
+        cipher.init(Cipher.UNWRAP_MODE, kek);
+        return cipher.unwrap(wrappedKey, "AES", Cipher.SECRET_KEY).getEncoded();
+    }
+}
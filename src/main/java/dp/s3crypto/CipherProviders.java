@@ -0,0 +1,340 @@
+package dp.s3crypto;
+
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Provider;
+import java.security.Security;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.apache.commons.codec.DecoderException;
+import org.apache.commons.codec.binary.Hex;
+
+/**
+ * Chooses the JCA provider used for each cipher transformation. Without an
+ * explicit choice a transformation uses the highest priority provider, as
+ * Cipher.getInstance does.
+ *
+ * Providers can be given explicitly, as a preference list, or picked by
+ * benchmark, which times each installed provider that passes a known-answer
+ * test and picks the fastest.
+ */
+public class CipherProviders {
+
+    public static final String CONTENT_TRANSFORMATION = "AES/CFB/NoPadding";
+    public static final String RSA_TRANSFORMATION = "RSA/ECB/OAEPWithSHA-1AndMGF1Padding";
+    public static final String AES_WRAP_TRANSFORMATION = "AESWrap";
+
+    private static final Logger LOG = Logger.getLogger(CipherProviders.class.getName());
+
+    private static final int BENCHMARK_BUFFER_SIZE = 1024 * 1024;
+    private static final int BENCHMARK_AES_ROUNDS = 32;
+    private static final int BENCHMARK_RSA_ROUNDS = 20;
+    private static final int BENCHMARK_WRAP_ROUNDS = 2000;
+
+    private Map<String, Provider> providers = new HashMap<String, Provider>();
+
+    /**
+     * Creates providers using the default provider for every transformation.
+     */
+    public CipherProviders() {
+    }
+
+    /**
+     * Uses the given provider for the transformation.
+     */
+    public CipherProviders withProvider(String transformation, Provider provider) {
+        providers.put(transformation, provider);
+        return this;
+    }
+
+    /**
+     * Uses the given provider for the content, RSA and AES wrap transformations
+     * it supports.
+     */
+    public CipherProviders withProvider(Provider provider) {
+        for (String transformation : new String[] { CONTENT_TRANSFORMATION, RSA_TRANSFORMATION,
+                AES_WRAP_TRANSFORMATION }) {
+            if (supports(provider, transformation)) {
+                providers.put(transformation, provider);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Uses, for each transformation, the first of the named providers which is
+     * installed and supports it.
+     */
+    public static CipherProviders preferring(String... providerNames) {
+        CipherProviders cipherProviders = new CipherProviders();
+        for (String transformation : new String[] { CONTENT_TRANSFORMATION, RSA_TRANSFORMATION,
+                AES_WRAP_TRANSFORMATION }) {
+            for (String name : providerNames) {
+                Provider provider = Security.getProvider(name);
+                if (provider != null && supports(provider, transformation)) {
+                    cipherProviders.providers.put(transformation, provider);
+                    break;
+                }
+            }
+        }
+        return cipherProviders;
+    }
+
+    /**
+     * Times the content, RSA and AES wrap transformations on every installed
+     * provider which supports them, and picks the fastest one which passes a
+     * known-answer test for each. Takes around a second, mostly generating an
+     * RSA key, so is meant to be run once at startup.
+     */
+    public static CipherProviders benchmark() {
+        CipherProviders cipherProviders = new CipherProviders();
+        cipherProviders.select(CONTENT_TRANSFORMATION, new ContentBenchmark());
+        cipherProviders.select(AES_WRAP_TRANSFORMATION, new WrapBenchmark());
+        try {
+            cipherProviders.select(RSA_TRANSFORMATION, new RSABenchmark());
+        } catch (GeneralSecurityException e) {
+            LOG.warning("could not benchmark " + RSA_TRANSFORMATION + ": " + e);
+        }
+        return cipherProviders;
+    }
+
+    /**
+     * @return the provider chosen for the transformation, or null for the
+     *         default
+     */
+    public Provider getProvider(String transformation) {
+        return providers.get(transformation);
+    }
+
+    public Cipher getCipher(String transformation) throws GeneralSecurityException {
+        Provider provider = providers.get(transformation);
+        if (provider == null) {
+            return Cipher.getInstance(transformation);
+        }
+        return Cipher.getInstance(transformation, provider);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("CipherProviders [");
+        for (String transformation : new String[] { CONTENT_TRANSFORMATION, RSA_TRANSFORMATION,
+                AES_WRAP_TRANSFORMATION }) {
+            Provider provider = providers.get(transformation);
+            sb.append(transformation).append('=').append(provider == null ? "default" : provider.getName())
+                    .append(transformation.equals(AES_WRAP_TRANSFORMATION) ? "" : ", ");
+        }
+        return sb.append(']').toString();
+    }
+
+    private void select(String transformation, Benchmark benchmark) {
+        Provider fastest = null;
+        double fastestRate = 0;
+        StringBuilder results = new StringBuilder();
+
+        for (Provider provider : Security.getProviders()) {
+            if (!supports(provider, transformation)) {
+                continue;
+            }
+            try {
+                if (!benchmark.passes(provider)) {
+                    results.append(' ').append(provider.getName()).append("=failed");
+                    continue;
+                }
+                double rate = benchmark.rate(provider);
+                results.append(' ').append(provider.getName()).append('=').append(String.format("%.1f", rate));
+                if (rate > fastestRate) {
+                    fastest = provider;
+                    fastestRate = rate;
+                }
+            } catch (GeneralSecurityException e) {
+                results.append(' ').append(provider.getName()).append("=error");
+            } catch (RuntimeException e) {
+                // e.g. a ProviderException from a hardware or misconfigured provider
+                results.append(' ').append(provider.getName()).append("=error");
+            }
+        }
+
+        if (fastest != null) {
+            providers.put(transformation, fastest);
+        }
+        LOG.info("selected " + (fastest == null ? "default" : fastest.getName()) + " for " + transformation + " ("
+                + benchmark.unit() + ":" + results + ")");
+    }
+
+    private static boolean supports(Provider provider, String transformation) {
+        try {
+            Cipher.getInstance(transformation, provider);
+            return true;
+        } catch (GeneralSecurityException e) {
+            return false;
+        } catch (RuntimeException e) {
+            return false;
+        }
+    }
+
+    private static byte[] hex(String hex) {
+        try {
+            return Hex.decodeHex(hex.toCharArray());
+        } catch (DecoderException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    private interface Benchmark {
+        boolean passes(Provider provider) throws GeneralSecurityException;
+
+        double rate(Provider provider) throws GeneralSecurityException;
+
+        String unit();
+    }
+
+    /**
+     * CFB128-AES128 known answer from NIST SP 800-38A F.3.13, timed over
+     * encrypting a buffer.
+     */
+    private static class ContentBenchmark implements Benchmark {
+        private static final byte[] KEY = hex("2b7e151628aed2a6abf7158809cf4f3c");
+        private static final byte[] IV = hex("000102030405060708090a0b0c0d0e0f");
+        private static final byte[] PLAINTEXT = hex("6bc1bee22e409f96e93d7e117393172aae2d8a571e03ac9c9eb76fac45af8e51"
+                + "30c81c46a35ce411e5fbc1191a0a52eff69f2445df4f9b17ad2b417be66c3710");
+        private static final byte[] CIPHERTEXT = hex("3b3fd92eb72dad20333449f8e83cfb4ac8a64537a0b3a93fcde3cdad9f1ce58b"
+                + "26751f67a3cbb140b1808cf187a4f4dfc04b05357c5d1c0eeac4c66f9ff7f2e6");
+
+        @Override
+        public boolean passes(Provider provider) throws GeneralSecurityException {
+            return Arrays.equals(CIPHERTEXT, cipher(provider, Cipher.ENCRYPT_MODE).doFinal(PLAINTEXT))
+                    && Arrays.equals(PLAINTEXT, cipher(provider, Cipher.DECRYPT_MODE).doFinal(CIPHERTEXT));
+        }
+
+        @Override
+        public double rate(Provider provider) throws GeneralSecurityException {
+            byte[] buffer = new byte[BENCHMARK_BUFFER_SIZE];
+            byte[] out = new byte[BENCHMARK_BUFFER_SIZE];
+            Cipher cipher = cipher(provider, Cipher.ENCRYPT_MODE);
+
+            for (int i = 0; i < BENCHMARK_AES_ROUNDS / 4; i++) {
+                cipher.doFinal(buffer, 0, buffer.length, out);
+            }
+            long start = System.nanoTime();
+            for (int i = 0; i < BENCHMARK_AES_ROUNDS; i++) {
+                cipher.doFinal(buffer, 0, buffer.length, out);
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            return BENCHMARK_AES_ROUNDS * (BENCHMARK_BUFFER_SIZE / (1024.0 * 1024.0)) / seconds;
+        }
+
+        @Override
+        public String unit() {
+            return "MB/s";
+        }
+
+        private Cipher cipher(Provider provider, int mode) throws GeneralSecurityException {
+            Cipher cipher = Cipher.getInstance(CONTENT_TRANSFORMATION, provider);
+            cipher.init(mode, new SecretKeySpec(KEY, "AES"), new IvParameterSpec(IV));
+            return cipher;
+        }
+    }
+
+    /**
+     * AES key wrap known answer from RFC 3394 section 4.1, timed over unwrapping.
+     */
+    private static class WrapBenchmark implements Benchmark {
+        private static final byte[] KEK = hex("000102030405060708090a0b0c0d0e0f");
+        private static final byte[] KEY_DATA = hex("00112233445566778899aabbccddeeff");
+        private static final byte[] WRAPPED = hex("1fa68b0a8112b447aef34bd8fb5a7b829d3e862371d2cfe5");
+
+        @Override
+        public boolean passes(Provider provider) throws GeneralSecurityException {
+            Cipher cipher = Cipher.getInstance(AES_WRAP_TRANSFORMATION, provider);
+            cipher.init(Cipher.WRAP_MODE, new SecretKeySpec(KEK, "AES"));
+            return Arrays.equals(WRAPPED, cipher.wrap(new SecretKeySpec(KEY_DATA, "AES"))) && Arrays.equals(KEY_DATA,
+                    unwrap(Cipher.getInstance(AES_WRAP_TRANSFORMATION, provider)));
+        }
+
+        @Override
+        public double rate(Provider provider) throws GeneralSecurityException {
+            Cipher cipher = Cipher.getInstance(AES_WRAP_TRANSFORMATION, provider);
+            for (int i = 0; i < BENCHMARK_WRAP_ROUNDS / 4; i++) {
+                unwrap(cipher);
+            }
+            long start = System.nanoTime();
+            for (int i = 0; i < BENCHMARK_WRAP_ROUNDS; i++) {
+                unwrap(cipher);
+            }
+            return BENCHMARK_WRAP_ROUNDS / ((System.nanoTime() - start) / 1e9);
+        }
+
+        @Override
+        public String unit() {
+            return "unwraps/s";
+        }
+
+        private byte[] unwrap(Cipher cipher) throws GeneralSecurityException {
+            cipher.init(Cipher.UNWRAP_MODE, new SecretKeySpec(KEK, "AES"));
+            return cipher.unwrap(WRAPPED, "AES", Cipher.SECRET_KEY).getEncoded();
+        }
+    }
+
+    /**
+     * OAEP is randomised, so instead of a fixed known answer each provider must
+     * decrypt what the default provider encrypts and the other way round. Timed
+     * over private key decryption, which dominates unwrapping.
+     */
+    private static class RSABenchmark implements Benchmark {
+        private static final byte[] PSK = hex("000102030405060708090a0b0c0d0e0f");
+
+        private final KeyPair keyPair;
+
+        RSABenchmark() throws GeneralSecurityException {
+            KeyPairGenerator kpg = KeyPairGenerator.getInstance("RSA");
+            kpg.initialize(2048);
+            keyPair = kpg.generateKeyPair();
+        }
+
+        @Override
+        public boolean passes(Provider provider) throws GeneralSecurityException {
+            Cipher defaultCipher = Cipher.getInstance(RSA_TRANSFORMATION);
+            Cipher cipher = Cipher.getInstance(RSA_TRANSFORMATION, provider);
+
+            defaultCipher.init(Cipher.ENCRYPT_MODE, keyPair.getPublic());
+            cipher.init(Cipher.DECRYPT_MODE, keyPair.getPrivate());
+            if (!Arrays.equals(PSK, cipher.doFinal(defaultCipher.doFinal(PSK)))) {
+                return false;
+            }
+
+            cipher.init(Cipher.ENCRYPT_MODE, keyPair.getPublic());
+            defaultCipher.init(Cipher.DECRYPT_MODE, keyPair.getPrivate());
+            return Arrays.equals(PSK, defaultCipher.doFinal(cipher.doFinal(PSK)));
+        }
+
+        @Override
+        public double rate(Provider provider) throws GeneralSecurityException {
+            Cipher cipher = Cipher.getInstance(RSA_TRANSFORMATION, provider);
+            cipher.init(Cipher.ENCRYPT_MODE, keyPair.getPublic());
+            byte[] wrapped = cipher.doFinal(PSK);
+
+            cipher.init(Cipher.DECRYPT_MODE, keyPair.getPrivate());
+            for (int i = 0; i < BENCHMARK_RSA_ROUNDS / 4; i++) {
+                cipher.doFinal(wrapped);
+            }
+            long start = System.nanoTime();
+            for (int i = 0; i < BENCHMARK_RSA_ROUNDS; i++) {
+                cipher.doFinal(wrapped);
+            }
+            return BENCHMARK_RSA_ROUNDS / ((System.nanoTime() - start) / 1e9);
+        }
+
+        @Override
+        public String unit() {
+            return "decrypts/s";
+        }
+    }
+}
@@ -0,0 +1,10 @@
+package dp.s3crypto;
+
+/**
+ * Implemented by the built in key wrappers so that the providers set on an
+ * S3CryptoClient also apply to the ciphers they use.
+ */
+interface CipherProvidersAware {
+
+    void setCipherProviders(CipherProviders cipherProviders);
+}
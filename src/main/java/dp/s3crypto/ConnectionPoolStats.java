@@ -0,0 +1,117 @@
+package dp.s3crypto;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.amazonaws.Request;
+import com.amazonaws.Response;
+import com.amazonaws.metrics.RequestMetricCollector;
+import com.amazonaws.util.AWSRequestMetrics;
+import com.amazonaws.util.AWSRequestMetrics.Field;
+import com.amazonaws.util.TimingInfo;
+
+/**
+ * Collects HTTP connection pool usage from the request metrics of an S3 client.
+ * The SDK samples the pool as each request is sent, so the values reflect the
+ * pool as last seen by a request, and peaks are the highest seen so far.
+ *
+ * A pending count above zero means requests are waiting for a connection, and
+ * the pool, rather than the crypto work, is limiting throughput.
+ *
+ * S3CryptoClientBuilder installs one when it creates the S3 client with
+ * withConnectionPoolStats. When sharing an existing client, pass an instance to
+ * that client's builder with withMetricsCollector to collect the same stats.
+ */
+public class ConnectionPoolStats extends RequestMetricCollector {
+
+    private final int maxConnections;
+
+    private AtomicLong requests = new AtomicLong();
+    private AtomicLong waitingRequests = new AtomicLong();
+    private volatile long leased;
+    private volatile long available;
+    private volatile long pending;
+    private AtomicLong peakLeased = new AtomicLong();
+    private AtomicLong peakPending = new AtomicLong();
+
+    public ConnectionPoolStats(int maxConnections) {
+        this.maxConnections = maxConnections;
+    }
+
+    @Override
+    public void collectMetrics(Request<?> request, Response<?> response) {
+        AWSRequestMetrics metrics = request.getAWSRequestMetrics();
+        if (metrics == null) {
+            return;
+        }
+        TimingInfo timingInfo = metrics.getTimingInfo();
+
+        leased = counter(timingInfo, Field.HttpClientPoolLeasedCount);
+        available = counter(timingInfo, Field.HttpClientPoolAvailableCount);
+        pending = counter(timingInfo, Field.HttpClientPoolPendingCount);
+
+        requests.incrementAndGet();
+        if (pending > 0) {
+            waitingRequests.incrementAndGet();
+        }
+        updatePeak(peakLeased, leased);
+        updatePeak(peakPending, pending);
+    }
+
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    public long getLeased() {
+        return leased;
+    }
+
+    public long getAvailable() {
+        return available;
+    }
+
+    public long getPending() {
+        return pending;
+    }
+
+    public long getPeakLeased() {
+        return peakLeased.get();
+    }
+
+    public long getPeakPending() {
+        return peakPending.get();
+    }
+
+    public long getRequestCount() {
+        return requests.get();
+    }
+
+    /**
+     * @return the number of requests which were sent while other requests were
+     *         waiting for a connection
+     */
+    public long getWaitingRequestCount() {
+        return waitingRequests.get();
+    }
+
+    @Override
+    public String toString() {
+        return "ConnectionPoolStats [maxConnections=" + maxConnections + ", leased=" + leased + ", available="
+                + available + ", pending=" + pending + ", peakLeased=" + getPeakLeased() + ", peakPending="
+                + getPeakPending() + ", requests=" + getRequestCount() + ", waitingRequests="
+                + getWaitingRequestCount() + "]";
+    }
+
+    private long counter(TimingInfo timingInfo, Field field) {
+        Number value = timingInfo.getCounter(field.name());
+        return value == null ? 0 : value.longValue();
+    }
+
+    private void updatePeak(AtomicLong peak, long value) {
+        long current;
+        while (value > (current = peak.get())) {
+            if (peak.compareAndSet(current, value)) {
+                return;
+            }
+        }
+    }
+}
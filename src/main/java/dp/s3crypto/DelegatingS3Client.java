@@ -0,0 +1,1054 @@
+package dp.s3crypto;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.AmazonWebServiceRequest;
+import com.amazonaws.HttpMethod;
+import com.amazonaws.SdkClientException;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.AmazonS3Client;
+import com.amazonaws.services.s3.S3ClientOptions;
+import com.amazonaws.services.s3.S3ResponseMetadata;
+import com.amazonaws.services.s3.model.AccessControlList;
+import com.amazonaws.services.s3.model.Bucket;
+import com.amazonaws.services.s3.model.BucketAccelerateConfiguration;
+import com.amazonaws.services.s3.model.BucketCrossOriginConfiguration;
+import com.amazonaws.services.s3.model.BucketLifecycleConfiguration;
+import com.amazonaws.services.s3.model.BucketLoggingConfiguration;
+import com.amazonaws.services.s3.model.BucketNotificationConfiguration;
+import com.amazonaws.services.s3.model.BucketPolicy;
+import com.amazonaws.services.s3.model.BucketReplicationConfiguration;
+import com.amazonaws.services.s3.model.BucketTaggingConfiguration;
+import com.amazonaws.services.s3.model.BucketVersioningConfiguration;
+import com.amazonaws.services.s3.model.BucketWebsiteConfiguration;
+import com.amazonaws.services.s3.model.CannedAccessControlList;
+import com.amazonaws.services.s3.model.CopyObjectRequest;
+import com.amazonaws.services.s3.model.CopyObjectResult;
+import com.amazonaws.services.s3.model.CopyPartRequest;
+import com.amazonaws.services.s3.model.CopyPartResult;
+import com.amazonaws.services.s3.model.CreateBucketRequest;
+import com.amazonaws.services.s3.model.DeleteBucketAnalyticsConfigurationRequest;
+import com.amazonaws.services.s3.model.DeleteBucketAnalyticsConfigurationResult;
+import com.amazonaws.services.s3.model.DeleteBucketCrossOriginConfigurationRequest;
+import com.amazonaws.services.s3.model.DeleteBucketEncryptionRequest;
+import com.amazonaws.services.s3.model.DeleteBucketEncryptionResult;
+import com.amazonaws.services.s3.model.DeleteBucketInventoryConfigurationRequest;
+import com.amazonaws.services.s3.model.DeleteBucketInventoryConfigurationResult;
+import com.amazonaws.services.s3.model.DeleteBucketLifecycleConfigurationRequest;
+import com.amazonaws.services.s3.model.DeleteBucketMetricsConfigurationRequest;
+import com.amazonaws.services.s3.model.DeleteBucketMetricsConfigurationResult;
+import com.amazonaws.services.s3.model.DeleteBucketPolicyRequest;
+import com.amazonaws.services.s3.model.DeleteBucketReplicationConfigurationRequest;
+import com.amazonaws.services.s3.model.DeleteBucketRequest;
+import com.amazonaws.services.s3.model.DeleteBucketTaggingConfigurationRequest;
+import com.amazonaws.services.s3.model.DeleteBucketWebsiteConfigurationRequest;
+import com.amazonaws.services.s3.model.DeleteObjectRequest;
+import com.amazonaws.services.s3.model.DeleteObjectTaggingRequest;
+import com.amazonaws.services.s3.model.DeleteObjectTaggingResult;
+import com.amazonaws.services.s3.model.DeleteObjectsRequest;
+import com.amazonaws.services.s3.model.DeleteObjectsResult;
+import com.amazonaws.services.s3.model.DeleteVersionRequest;
+import com.amazonaws.services.s3.model.GeneratePresignedUrlRequest;
+import com.amazonaws.services.s3.model.GetBucketAccelerateConfigurationRequest;
+import com.amazonaws.services.s3.model.GetBucketAclRequest;
+import com.amazonaws.services.s3.model.GetBucketAnalyticsConfigurationRequest;
+import com.amazonaws.services.s3.model.GetBucketAnalyticsConfigurationResult;
+import com.amazonaws.services.s3.model.GetBucketCrossOriginConfigurationRequest;
+import com.amazonaws.services.s3.model.GetBucketEncryptionRequest;
+import com.amazonaws.services.s3.model.GetBucketEncryptionResult;
+import com.amazonaws.services.s3.model.GetBucketInventoryConfigurationRequest;
+import com.amazonaws.services.s3.model.GetBucketInventoryConfigurationResult;
+import com.amazonaws.services.s3.model.GetBucketLifecycleConfigurationRequest;
+import com.amazonaws.services.s3.model.GetBucketLocationRequest;
+import com.amazonaws.services.s3.model.GetBucketLoggingConfigurationRequest;
+import com.amazonaws.services.s3.model.GetBucketMetricsConfigurationRequest;
+import com.amazonaws.services.s3.model.GetBucketMetricsConfigurationResult;
+import com.amazonaws.services.s3.model.GetBucketNotificationConfigurationRequest;
+import com.amazonaws.services.s3.model.GetBucketPolicyRequest;
+import com.amazonaws.services.s3.model.GetBucketReplicationConfigurationRequest;
+import com.amazonaws.services.s3.model.GetBucketTaggingConfigurationRequest;
+import com.amazonaws.services.s3.model.GetBucketVersioningConfigurationRequest;
+import com.amazonaws.services.s3.model.GetBucketWebsiteConfigurationRequest;
+import com.amazonaws.services.s3.model.GetObjectAclRequest;
+import com.amazonaws.services.s3.model.GetObjectMetadataRequest;
+import com.amazonaws.services.s3.model.GetObjectTaggingRequest;
+import com.amazonaws.services.s3.model.GetObjectTaggingResult;
+import com.amazonaws.services.s3.model.GetS3AccountOwnerRequest;
+import com.amazonaws.services.s3.model.HeadBucketRequest;
+import com.amazonaws.services.s3.model.HeadBucketResult;
+import com.amazonaws.services.s3.model.ListBucketAnalyticsConfigurationsRequest;
+import com.amazonaws.services.s3.model.ListBucketAnalyticsConfigurationsResult;
+import com.amazonaws.services.s3.model.ListBucketInventoryConfigurationsRequest;
+import com.amazonaws.services.s3.model.ListBucketInventoryConfigurationsResult;
+import com.amazonaws.services.s3.model.ListBucketMetricsConfigurationsRequest;
+import com.amazonaws.services.s3.model.ListBucketMetricsConfigurationsResult;
+import com.amazonaws.services.s3.model.ListBucketsRequest;
+import com.amazonaws.services.s3.model.ListMultipartUploadsRequest;
+import com.amazonaws.services.s3.model.ListNextBatchOfObjectsRequest;
+import com.amazonaws.services.s3.model.ListNextBatchOfVersionsRequest;
+import com.amazonaws.services.s3.model.ListObjectsRequest;
+import com.amazonaws.services.s3.model.ListObjectsV2Request;
+import com.amazonaws.services.s3.model.ListObjectsV2Result;
+import com.amazonaws.services.s3.model.ListPartsRequest;
+import com.amazonaws.services.s3.model.ListVersionsRequest;
+import com.amazonaws.services.s3.model.MultipartUploadListing;
+import com.amazonaws.services.s3.model.ObjectListing;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.Owner;
+import com.amazonaws.services.s3.model.PartListing;
+import com.amazonaws.services.s3.model.Region;
+import com.amazonaws.services.s3.model.RestoreObjectRequest;
+import com.amazonaws.services.s3.model.RestoreObjectResult;
+import com.amazonaws.services.s3.model.SetBucketAccelerateConfigurationRequest;
+import com.amazonaws.services.s3.model.SetBucketAclRequest;
+import com.amazonaws.services.s3.model.SetBucketAnalyticsConfigurationRequest;
+import com.amazonaws.services.s3.model.SetBucketAnalyticsConfigurationResult;
+import com.amazonaws.services.s3.model.SetBucketCrossOriginConfigurationRequest;
+import com.amazonaws.services.s3.model.SetBucketEncryptionRequest;
+import com.amazonaws.services.s3.model.SetBucketEncryptionResult;
+import com.amazonaws.services.s3.model.SetBucketInventoryConfigurationRequest;
+import com.amazonaws.services.s3.model.SetBucketInventoryConfigurationResult;
+import com.amazonaws.services.s3.model.SetBucketLifecycleConfigurationRequest;
+import com.amazonaws.services.s3.model.SetBucketLoggingConfigurationRequest;
+import com.amazonaws.services.s3.model.SetBucketMetricsConfigurationRequest;
+import com.amazonaws.services.s3.model.SetBucketMetricsConfigurationResult;
+import com.amazonaws.services.s3.model.SetBucketNotificationConfigurationRequest;
+import com.amazonaws.services.s3.model.SetBucketPolicyRequest;
+import com.amazonaws.services.s3.model.SetBucketReplicationConfigurationRequest;
+import com.amazonaws.services.s3.model.SetBucketTaggingConfigurationRequest;
+import com.amazonaws.services.s3.model.SetBucketVersioningConfigurationRequest;
+import com.amazonaws.services.s3.model.SetBucketWebsiteConfigurationRequest;
+import com.amazonaws.services.s3.model.SetObjectAclRequest;
+import com.amazonaws.services.s3.model.SetObjectTaggingRequest;
+import com.amazonaws.services.s3.model.SetObjectTaggingResult;
+import com.amazonaws.services.s3.model.StorageClass;
+import com.amazonaws.services.s3.model.VersionListing;
+import com.amazonaws.services.s3.model.analytics.AnalyticsConfiguration;
+import com.amazonaws.services.s3.model.inventory.InventoryConfiguration;
+import com.amazonaws.services.s3.model.metrics.MetricsConfiguration;
+import com.amazonaws.services.s3.waiters.AmazonS3Waiters;
+import java.net.URL;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Sends every AmazonS3 call to the S3 client returned by getS3Client, so calls
+ * which S3CryptoClient does not encrypt or decrypt, such as listing, deleting
+ * and copying objects, use the configured or shared client rather than the
+ * default one inherited from AmazonS3Client.
+ */
+abstract class DelegatingS3Client extends AmazonS3Client {
+
+    /**
+     * @return the client to send calls to, which is null while AmazonS3Client is
+     *         being constructed
+     */
+    abstract AmazonS3 getS3Client();
+
+    @Override
+    public void setEndpoint(String endpoint) {
+        if (getS3Client() == null) {
+            super.setEndpoint(endpoint);
+        } else {
+            getS3Client().setEndpoint(endpoint);
+        }
+    }
+
+    @Override
+    public void setRegion(com.amazonaws.regions.Region region) throws IllegalArgumentException {
+        if (getS3Client() == null) {
+            super.setRegion(region);
+        } else {
+            getS3Client().setRegion(region);
+        }
+    }
+
+    @Override
+    public void setS3ClientOptions(S3ClientOptions clientOptions) {
+        if (getS3Client() == null) {
+            super.setS3ClientOptions(clientOptions);
+        } else {
+            getS3Client().setS3ClientOptions(clientOptions);
+        }
+    }
+
+    @Override
+    public void changeObjectStorageClass(String bucketName, String key, StorageClass newStorageClass)
+            throws SdkClientException, AmazonServiceException {
+        getS3Client().changeObjectStorageClass(bucketName, key, newStorageClass);
+    }
+
+    @Override
+    public void setObjectRedirectLocation(String bucketName, String key, String newRedirectLocation)
+            throws SdkClientException, AmazonServiceException {
+        getS3Client().setObjectRedirectLocation(bucketName, key, newRedirectLocation);
+    }
+
+    @Override
+    public ObjectListing listObjects(String bucketName) throws SdkClientException, AmazonServiceException {
+        return getS3Client().listObjects(bucketName);
+    }
+
+    @Override
+    public ObjectListing listObjects(String bucketName, String prefix)
+            throws SdkClientException, AmazonServiceException {
+        return getS3Client().listObjects(bucketName, prefix);
+    }
+
+    @Override
+    public ObjectListing listObjects(ListObjectsRequest listObjectsRequest)
+            throws SdkClientException, AmazonServiceException {
+        return getS3Client().listObjects(listObjectsRequest);
+    }
+
+    @Override
+    public ListObjectsV2Result listObjectsV2(String bucketName) throws SdkClientException, AmazonServiceException {
+        return getS3Client().listObjectsV2(bucketName);
+    }
+
+    @Override
+    public ListObjectsV2Result listObjectsV2(String bucketName, String prefix)
+            throws SdkClientException, AmazonServiceException {
+        return getS3Client().listObjectsV2(bucketName, prefix);
+    }
+
+    @Override
+    public ListObjectsV2Result listObjectsV2(ListObjectsV2Request listObjectsV2Request)
+            throws SdkClientException, AmazonServiceException {
+        return getS3Client().listObjectsV2(listObjectsV2Request);
+    }
+
+    @Override
+    public ObjectListing listNextBatchOfObjects(ObjectListing previousObjectListing)
+            throws SdkClientException, AmazonServiceException {
+        return getS3Client().listNextBatchOfObjects(previousObjectListing);
+    }
+
+    @Override
+    public ObjectListing listNextBatchOfObjects(ListNextBatchOfObjectsRequest listNextBatchOfObjectsRequest)
+            throws SdkClientException, AmazonServiceException {
+        return getS3Client().listNextBatchOfObjects(listNextBatchOfObjectsRequest);
+    }
+
+    @Override
+    public VersionListing listVersions(String bucketName, String prefix)
+            throws SdkClientException, AmazonServiceException {
+        return getS3Client().listVersions(bucketName, prefix);
+    }
+
+    @Override
+    public VersionListing listNextBatchOfVersions(VersionListing previousVersionListing)
+            throws SdkClientException, AmazonServiceException {
+        return getS3Client().listNextBatchOfVersions(previousVersionListing);
+    }
+
+    @Override
+    public VersionListing listNextBatchOfVersions(ListNextBatchOfVersionsRequest listNextBatchOfVersionsRequest)
+            throws SdkClientException, AmazonServiceException {
+        return getS3Client().listNextBatchOfVersions(listNextBatchOfVersionsRequest);
+    }
+
+    @Override
+    public VersionListing listVersions(String bucketName, String prefix, String keyMarker, String versionIdMarker,
+            String delimiter, Integer maxKeys) throws SdkClientException, AmazonServiceException {
+        return getS3Client().listVersions(bucketName, prefix, keyMarker, versionIdMarker, delimiter, maxKeys);
+    }
+
+    @Override
+    public VersionListing listVersions(ListVersionsRequest listVersionsRequest)
+            throws SdkClientException, AmazonServiceException {
+        return getS3Client().listVersions(listVersionsRequest);
+    }
+
+    @Override
+    public Owner getS3AccountOwner() throws SdkClientException, AmazonServiceException {
+        return getS3Client().getS3AccountOwner();
+    }
+
+    @Override
+    public Owner getS3AccountOwner(GetS3AccountOwnerRequest getS3AccountOwnerRequest)
+            throws SdkClientException, AmazonServiceException {
+        return getS3Client().getS3AccountOwner(getS3AccountOwnerRequest);
+    }
+
+    @Override
+    public boolean doesBucketExist(String bucketName) throws SdkClientException, AmazonServiceException {
+        return getS3Client().doesBucketExist(bucketName);
+    }
+
+    @Override
+    public boolean doesBucketExistV2(String bucketName) throws SdkClientException, AmazonServiceException {
+        return getS3Client().doesBucketExistV2(bucketName);
+    }
+
+    @Override
+    public HeadBucketResult headBucket(HeadBucketRequest headBucketRequest)
+            throws SdkClientException, AmazonServiceException {
+        return getS3Client().headBucket(headBucketRequest);
+    }
+
+    @Override
+    public List<Bucket> listBuckets() throws SdkClientException, AmazonServiceException {
+        return getS3Client().listBuckets();
+    }
+
+    @Override
+    public List<Bucket> listBuckets(ListBucketsRequest listBucketsRequest)
+            throws SdkClientException, AmazonServiceException {
+        return getS3Client().listBuckets(listBucketsRequest);
+    }
+
+    @Override
+    public String getBucketLocation(String bucketName) throws SdkClientException, AmazonServiceException {
+        return getS3Client().getBucketLocation(bucketName);
+    }
+
+    @Override
+    public String getBucketLocation(GetBucketLocationRequest getBucketLocationRequest)
+            throws SdkClientException, AmazonServiceException {
+        return getS3Client().getBucketLocation(getBucketLocationRequest);
+    }
+
+    @Override
+    public Bucket createBucket(CreateBucketRequest createBucketRequest)
+            throws SdkClientException, AmazonServiceException {
+        return getS3Client().createBucket(createBucketRequest);
+    }
+
+    @Override
+    public Bucket createBucket(String bucketName) throws SdkClientException, AmazonServiceException {
+        return getS3Client().createBucket(bucketName);
+    }
+
+    @Override
+    public Bucket createBucket(String bucketName, Region region) throws SdkClientException, AmazonServiceException {
+        return getS3Client().createBucket(bucketName, region);
+    }
+
+    @Override
+    public Bucket createBucket(String bucketName, String region) throws SdkClientException, AmazonServiceException {
+        return getS3Client().createBucket(bucketName, region);
+    }
+
+    @Override
+    public AccessControlList getObjectAcl(String bucketName, String key)
+            throws SdkClientException, AmazonServiceException {
+        return getS3Client().getObjectAcl(bucketName, key);
+    }
+
+    @Override
+    public AccessControlList getObjectAcl(String bucketName, String key, String versionId)
+            throws SdkClientException, AmazonServiceException {
+        return getS3Client().getObjectAcl(bucketName, key, versionId);
+    }
+
+    @Override
+    public AccessControlList getObjectAcl(GetObjectAclRequest getObjectAclRequest)
+            throws SdkClientException, AmazonServiceException {
+        return getS3Client().getObjectAcl(getObjectAclRequest);
+    }
+
+    @Override
+    public void setObjectAcl(String bucketName, String key, AccessControlList acl)
+            throws SdkClientException, AmazonServiceException {
+        getS3Client().setObjectAcl(bucketName, key, acl);
+    }
+
+    @Override
+    public void setObjectAcl(String bucketName, String key, CannedAccessControlList acl)
+            throws SdkClientException, AmazonServiceException {
+        getS3Client().setObjectAcl(bucketName, key, acl);
+    }
+
+    @Override
+    public void setObjectAcl(String bucketName, String key, String versionId, AccessControlList acl)
+            throws SdkClientException, AmazonServiceException {
+        getS3Client().setObjectAcl(bucketName, key, versionId, acl);
+    }
+
+    @Override
+    public void setObjectAcl(String bucketName, String key, String versionId, CannedAccessControlList acl)
+            throws SdkClientException, AmazonServiceException {
+        getS3Client().setObjectAcl(bucketName, key, versionId, acl);
+    }
+
+    @Override
+    public void setObjectAcl(SetObjectAclRequest setObjectAclRequest)
+            throws SdkClientException, AmazonServiceException {
+        getS3Client().setObjectAcl(setObjectAclRequest);
+    }
+
+    @Override
+    public AccessControlList getBucketAcl(String bucketName) throws SdkClientException, AmazonServiceException {
+        return getS3Client().getBucketAcl(bucketName);
+    }
+
+    @Override
+    public void setBucketAcl(SetBucketAclRequest setBucketAclRequest)
+            throws SdkClientException, AmazonServiceException {
+        getS3Client().setBucketAcl(setBucketAclRequest);
+    }
+
+    @Override
+    public AccessControlList getBucketAcl(GetBucketAclRequest getBucketAclRequest)
+            throws SdkClientException, AmazonServiceException {
+        return getS3Client().getBucketAcl(getBucketAclRequest);
+    }
+
+    @Override
+    public void setBucketAcl(String bucketName, AccessControlList acl)
+            throws SdkClientException, AmazonServiceException {
+        getS3Client().setBucketAcl(bucketName, acl);
+    }
+
+    @Override
+    public void setBucketAcl(String bucketName, CannedAccessControlList cannedAcl)
+            throws SdkClientException, AmazonServiceException {
+        getS3Client().setBucketAcl(bucketName, cannedAcl);
+    }
+
+    @Override
+    public ObjectMetadata getObjectMetadata(String bucketName, String key)
+            throws SdkClientException, AmazonServiceException {
+        return getS3Client().getObjectMetadata(bucketName, key);
+    }
+
+    @Override
+    public ObjectMetadata getObjectMetadata(GetObjectMetadataRequest getObjectMetadataRequest)
+            throws SdkClientException, AmazonServiceException {
+        return getS3Client().getObjectMetadata(getObjectMetadataRequest);
+    }
+
+    @Override
+    public GetObjectTaggingResult getObjectTagging(GetObjectTaggingRequest getObjectTaggingRequest) {
+        return getS3Client().getObjectTagging(getObjectTaggingRequest);
+    }
+
+    @Override
+    public SetObjectTaggingResult setObjectTagging(SetObjectTaggingRequest setObjectTaggingRequest) {
+        return getS3Client().setObjectTagging(setObjectTaggingRequest);
+    }
+
+    @Override
+    public DeleteObjectTaggingResult deleteObjectTagging(DeleteObjectTaggingRequest deleteObjectTaggingRequest) {
+        return getS3Client().deleteObjectTagging(deleteObjectTaggingRequest);
+    }
+
+    @Override
+    public void deleteBucket(DeleteBucketRequest deleteBucketRequest)
+            throws SdkClientException, AmazonServiceException {
+        getS3Client().deleteBucket(deleteBucketRequest);
+    }
+
+    @Override
+    public void deleteBucket(String bucketName) throws SdkClientException, AmazonServiceException {
+        getS3Client().deleteBucket(bucketName);
+    }
+
+    @Override
+    public CopyObjectResult copyObject(String sourceBucketName, String sourceKey, String destinationBucketName,
+            String destinationKey) throws SdkClientException, AmazonServiceException {
+        return getS3Client().copyObject(sourceBucketName, sourceKey, destinationBucketName, destinationKey);
+    }
+
+    @Override
+    public CopyObjectResult copyObject(CopyObjectRequest copyObjectRequest)
+            throws SdkClientException, AmazonServiceException {
+        return getS3Client().copyObject(copyObjectRequest);
+    }
+
+    @Override
+    public CopyPartResult copyPart(CopyPartRequest copyPartRequest) throws SdkClientException, AmazonServiceException {
+        return getS3Client().copyPart(copyPartRequest);
+    }
+
+    @Override
+    public void deleteObject(String bucketName, String key) throws SdkClientException, AmazonServiceException {
+        getS3Client().deleteObject(bucketName, key);
+    }
+
+    @Override
+    public void deleteObject(DeleteObjectRequest deleteObjectRequest)
+            throws SdkClientException, AmazonServiceException {
+        getS3Client().deleteObject(deleteObjectRequest);
+    }
+
+    @Override
+    public DeleteObjectsResult deleteObjects(DeleteObjectsRequest deleteObjectsRequest)
+            throws SdkClientException, AmazonServiceException {
+        return getS3Client().deleteObjects(deleteObjectsRequest);
+    }
+
+    @Override
+    public void deleteVersion(String bucketName, String key, String versionId)
+            throws SdkClientException, AmazonServiceException {
+        getS3Client().deleteVersion(bucketName, key, versionId);
+    }
+
+    @Override
+    public void deleteVersion(DeleteVersionRequest deleteVersionRequest)
+            throws SdkClientException, AmazonServiceException {
+        getS3Client().deleteVersion(deleteVersionRequest);
+    }
+
+    @Override
+    public BucketLoggingConfiguration getBucketLoggingConfiguration(String bucketName)
+            throws SdkClientException, AmazonServiceException {
+        return getS3Client().getBucketLoggingConfiguration(bucketName);
+    }
+
+    @Override
+    public BucketLoggingConfiguration getBucketLoggingConfiguration(
+            GetBucketLoggingConfigurationRequest getBucketLoggingConfigurationRequest)
+            throws SdkClientException, AmazonServiceException {
+        return getS3Client().getBucketLoggingConfiguration(getBucketLoggingConfigurationRequest);
+    }
+
+    @Override
+    public void setBucketLoggingConfiguration(SetBucketLoggingConfigurationRequest setBucketLoggingConfigurationRequest)
+            throws SdkClientException, AmazonServiceException {
+        getS3Client().setBucketLoggingConfiguration(setBucketLoggingConfigurationRequest);
+    }
+
+    @Override
+    public BucketVersioningConfiguration getBucketVersioningConfiguration(String bucketName)
+            throws SdkClientException, AmazonServiceException {
+        return getS3Client().getBucketVersioningConfiguration(bucketName);
+    }
+
+    @Override
+    public BucketVersioningConfiguration getBucketVersioningConfiguration(
+            GetBucketVersioningConfigurationRequest getBucketVersioningConfigurationRequest)
+            throws SdkClientException, AmazonServiceException {
+        return getS3Client().getBucketVersioningConfiguration(getBucketVersioningConfigurationRequest);
+    }
+
+    @Override
+    public void setBucketVersioningConfiguration(
+            SetBucketVersioningConfigurationRequest setBucketVersioningConfigurationRequest)
+            throws SdkClientException, AmazonServiceException {
+        getS3Client().setBucketVersioningConfiguration(setBucketVersioningConfigurationRequest);
+    }
+
+    @Override
+    public BucketLifecycleConfiguration getBucketLifecycleConfiguration(String bucketName) {
+        return getS3Client().getBucketLifecycleConfiguration(bucketName);
+    }
+
+    @Override
+    public BucketLifecycleConfiguration getBucketLifecycleConfiguration(
+            GetBucketLifecycleConfigurationRequest getBucketLifecycleConfigurationRequest) {
+        return getS3Client().getBucketLifecycleConfiguration(getBucketLifecycleConfigurationRequest);
+    }
+
+    @Override
+    public void setBucketLifecycleConfiguration(String bucketName,
+            BucketLifecycleConfiguration bucketLifecycleConfiguration) {
+        getS3Client().setBucketLifecycleConfiguration(bucketName, bucketLifecycleConfiguration);
+    }
+
+    @Override
+    public void setBucketLifecycleConfiguration(
+            SetBucketLifecycleConfigurationRequest setBucketLifecycleConfigurationRequest) {
+        getS3Client().setBucketLifecycleConfiguration(setBucketLifecycleConfigurationRequest);
+    }
+
+    @Override
+    public void deleteBucketLifecycleConfiguration(String bucketName) {
+        getS3Client().deleteBucketLifecycleConfiguration(bucketName);
+    }
+
+    @Override
+    public void deleteBucketLifecycleConfiguration(
+            DeleteBucketLifecycleConfigurationRequest deleteBucketLifecycleConfigurationRequest) {
+        getS3Client().deleteBucketLifecycleConfiguration(deleteBucketLifecycleConfigurationRequest);
+    }
+
+    @Override
+    public BucketCrossOriginConfiguration getBucketCrossOriginConfiguration(String bucketName) {
+        return getS3Client().getBucketCrossOriginConfiguration(bucketName);
+    }
+
+    @Override
+    public BucketCrossOriginConfiguration getBucketCrossOriginConfiguration(
+            GetBucketCrossOriginConfigurationRequest getBucketCrossOriginConfigurationRequest) {
+        return getS3Client().getBucketCrossOriginConfiguration(getBucketCrossOriginConfigurationRequest);
+    }
+
+    @Override
+    public void setBucketCrossOriginConfiguration(String bucketName,
+            BucketCrossOriginConfiguration bucketCrossOriginConfiguration) {
+        getS3Client().setBucketCrossOriginConfiguration(bucketName, bucketCrossOriginConfiguration);
+    }
+
+    @Override
+    public void setBucketCrossOriginConfiguration(
+            SetBucketCrossOriginConfigurationRequest setBucketCrossOriginConfigurationRequest) {
+        getS3Client().setBucketCrossOriginConfiguration(setBucketCrossOriginConfigurationRequest);
+    }
+
+    @Override
+    public void deleteBucketCrossOriginConfiguration(String bucketName) {
+        getS3Client().deleteBucketCrossOriginConfiguration(bucketName);
+    }
+
+    @Override
+    public void deleteBucketCrossOriginConfiguration(
+            DeleteBucketCrossOriginConfigurationRequest deleteBucketCrossOriginConfigurationRequest) {
+        getS3Client().deleteBucketCrossOriginConfiguration(deleteBucketCrossOriginConfigurationRequest);
+    }
+
+    @Override
+    public BucketTaggingConfiguration getBucketTaggingConfiguration(String bucketName) {
+        return getS3Client().getBucketTaggingConfiguration(bucketName);
+    }
+
+    @Override
+    public BucketTaggingConfiguration getBucketTaggingConfiguration(
+            GetBucketTaggingConfigurationRequest getBucketTaggingConfigurationRequest) {
+        return getS3Client().getBucketTaggingConfiguration(getBucketTaggingConfigurationRequest);
+    }
+
+    @Override
+    public void setBucketTaggingConfiguration(String bucketName,
+            BucketTaggingConfiguration bucketTaggingConfiguration) {
+        getS3Client().setBucketTaggingConfiguration(bucketName, bucketTaggingConfiguration);
+    }
+
+    @Override
+    public void setBucketTaggingConfiguration(
+            SetBucketTaggingConfigurationRequest setBucketTaggingConfigurationRequest) {
+        getS3Client().setBucketTaggingConfiguration(setBucketTaggingConfigurationRequest);
+    }
+
+    @Override
+    public void deleteBucketTaggingConfiguration(String bucketName) {
+        getS3Client().deleteBucketTaggingConfiguration(bucketName);
+    }
+
+    @Override
+    public void deleteBucketTaggingConfiguration(
+            DeleteBucketTaggingConfigurationRequest deleteBucketTaggingConfigurationRequest) {
+        getS3Client().deleteBucketTaggingConfiguration(deleteBucketTaggingConfigurationRequest);
+    }
+
+    @Override
+    public BucketNotificationConfiguration getBucketNotificationConfiguration(String bucketName)
+            throws SdkClientException, AmazonServiceException {
+        return getS3Client().getBucketNotificationConfiguration(bucketName);
+    }
+
+    @Override
+    public BucketNotificationConfiguration getBucketNotificationConfiguration(
+            GetBucketNotificationConfigurationRequest getBucketNotificationConfigurationRequest)
+            throws SdkClientException, AmazonServiceException {
+        return getS3Client().getBucketNotificationConfiguration(getBucketNotificationConfigurationRequest);
+    }
+
+    @Override
+    public void setBucketNotificationConfiguration(
+            SetBucketNotificationConfigurationRequest setBucketNotificationConfigurationRequest)
+            throws SdkClientException, AmazonServiceException {
+        getS3Client().setBucketNotificationConfiguration(setBucketNotificationConfigurationRequest);
+    }
+
+    @Override
+    public void setBucketNotificationConfiguration(String bucketName,
+            BucketNotificationConfiguration bucketNotificationConfiguration)
+            throws SdkClientException, AmazonServiceException {
+        getS3Client().setBucketNotificationConfiguration(bucketName, bucketNotificationConfiguration);
+    }
+
+    @Override
+    public BucketWebsiteConfiguration getBucketWebsiteConfiguration(String bucketName)
+            throws SdkClientException, AmazonServiceException {
+        return getS3Client().getBucketWebsiteConfiguration(bucketName);
+    }
+
+    @Override
+    public BucketWebsiteConfiguration getBucketWebsiteConfiguration(
+            GetBucketWebsiteConfigurationRequest getBucketWebsiteConfigurationRequest)
+            throws SdkClientException, AmazonServiceException {
+        return getS3Client().getBucketWebsiteConfiguration(getBucketWebsiteConfigurationRequest);
+    }
+
+    @Override
+    public void setBucketWebsiteConfiguration(String bucketName, BucketWebsiteConfiguration configuration)
+            throws SdkClientException, AmazonServiceException {
+        getS3Client().setBucketWebsiteConfiguration(bucketName, configuration);
+    }
+
+    @Override
+    public void setBucketWebsiteConfiguration(SetBucketWebsiteConfigurationRequest setBucketWebsiteConfigurationRequest)
+            throws SdkClientException, AmazonServiceException {
+        getS3Client().setBucketWebsiteConfiguration(setBucketWebsiteConfigurationRequest);
+    }
+
+    @Override
+    public void deleteBucketWebsiteConfiguration(String bucketName) throws SdkClientException, AmazonServiceException {
+        getS3Client().deleteBucketWebsiteConfiguration(bucketName);
+    }
+
+    @Override
+    public void deleteBucketWebsiteConfiguration(
+            DeleteBucketWebsiteConfigurationRequest deleteBucketWebsiteConfigurationRequest)
+            throws SdkClientException, AmazonServiceException {
+        getS3Client().deleteBucketWebsiteConfiguration(deleteBucketWebsiteConfigurationRequest);
+    }
+
+    @Override
+    public BucketPolicy getBucketPolicy(String bucketName) throws SdkClientException, AmazonServiceException {
+        return getS3Client().getBucketPolicy(bucketName);
+    }
+
+    @Override
+    public BucketPolicy getBucketPolicy(GetBucketPolicyRequest getBucketPolicyRequest)
+            throws SdkClientException, AmazonServiceException {
+        return getS3Client().getBucketPolicy(getBucketPolicyRequest);
+    }
+
+    @Override
+    public void setBucketPolicy(String bucketName, String policyText)
+            throws SdkClientException, AmazonServiceException {
+        getS3Client().setBucketPolicy(bucketName, policyText);
+    }
+
+    @Override
+    public void setBucketPolicy(SetBucketPolicyRequest setBucketPolicyRequest)
+            throws SdkClientException, AmazonServiceException {
+        getS3Client().setBucketPolicy(setBucketPolicyRequest);
+    }
+
+    @Override
+    public void deleteBucketPolicy(String bucketName) throws SdkClientException, AmazonServiceException {
+        getS3Client().deleteBucketPolicy(bucketName);
+    }
+
+    @Override
+    public void deleteBucketPolicy(DeleteBucketPolicyRequest deleteBucketPolicyRequest)
+            throws SdkClientException, AmazonServiceException {
+        getS3Client().deleteBucketPolicy(deleteBucketPolicyRequest);
+    }
+
+    @Override
+    public URL generatePresignedUrl(String bucketName, String key, Date expiration) throws SdkClientException {
+        return getS3Client().generatePresignedUrl(bucketName, key, expiration);
+    }
+
+    @Override
+    public URL generatePresignedUrl(String bucketName, String key, Date expiration, HttpMethod method)
+            throws SdkClientException {
+        return getS3Client().generatePresignedUrl(bucketName, key, expiration, method);
+    }
+
+    @Override
+    public URL generatePresignedUrl(GeneratePresignedUrlRequest req) throws SdkClientException {
+        return getS3Client().generatePresignedUrl(req);
+    }
+
+    @Override
+    public PartListing listParts(ListPartsRequest listPartsRequest) throws SdkClientException, AmazonServiceException {
+        return getS3Client().listParts(listPartsRequest);
+    }
+
+    @Override
+    public MultipartUploadListing listMultipartUploads(ListMultipartUploadsRequest listMultipartUploadsRequest)
+            throws SdkClientException, AmazonServiceException {
+        return getS3Client().listMultipartUploads(listMultipartUploadsRequest);
+    }
+
+    @Override
+    public S3ResponseMetadata getCachedResponseMetadata(AmazonWebServiceRequest request) {
+        return getS3Client().getCachedResponseMetadata(request);
+    }
+
+    @Override
+    public void restoreObject(RestoreObjectRequest restoreObjectRequest) throws AmazonServiceException {
+        getS3Client().restoreObject(restoreObjectRequest);
+    }
+
+    @Override
+    public RestoreObjectResult restoreObjectV2(RestoreObjectRequest restoreObjectRequest)
+            throws AmazonServiceException {
+        return getS3Client().restoreObjectV2(restoreObjectRequest);
+    }
+
+    @Override
+    public void restoreObject(String bucketName, String key, int expirationInDays) throws AmazonServiceException {
+        getS3Client().restoreObject(bucketName, key, expirationInDays);
+    }
+
+    @Override
+    public void enableRequesterPays(String bucketName) throws AmazonServiceException, SdkClientException {
+        getS3Client().enableRequesterPays(bucketName);
+    }
+
+    @Override
+    public void disableRequesterPays(String bucketName) throws AmazonServiceException, SdkClientException {
+        getS3Client().disableRequesterPays(bucketName);
+    }
+
+    @Override
+    public boolean isRequesterPaysEnabled(String bucketName) throws AmazonServiceException, SdkClientException {
+        return getS3Client().isRequesterPaysEnabled(bucketName);
+    }
+
+    @Override
+    public void setBucketReplicationConfiguration(String bucketName, BucketReplicationConfiguration configuration)
+            throws AmazonServiceException, SdkClientException {
+        getS3Client().setBucketReplicationConfiguration(bucketName, configuration);
+    }
+
+    @Override
+    public void setBucketReplicationConfiguration(
+            SetBucketReplicationConfigurationRequest setBucketReplicationConfigurationRequest)
+            throws AmazonServiceException, SdkClientException {
+        getS3Client().setBucketReplicationConfiguration(setBucketReplicationConfigurationRequest);
+    }
+
+    @Override
+    public BucketReplicationConfiguration getBucketReplicationConfiguration(String bucketName)
+            throws AmazonServiceException, SdkClientException {
+        return getS3Client().getBucketReplicationConfiguration(bucketName);
+    }
+
+    @Override
+    public BucketReplicationConfiguration getBucketReplicationConfiguration(
+            GetBucketReplicationConfigurationRequest getBucketReplicationConfigurationRequest)
+            throws AmazonServiceException, SdkClientException {
+        return getS3Client().getBucketReplicationConfiguration(getBucketReplicationConfigurationRequest);
+    }
+
+    @Override
+    public void deleteBucketReplicationConfiguration(String bucketName)
+            throws AmazonServiceException, SdkClientException {
+        getS3Client().deleteBucketReplicationConfiguration(bucketName);
+    }
+
+    @Override
+    public void deleteBucketReplicationConfiguration(
+            DeleteBucketReplicationConfigurationRequest deleteBucketReplicationConfigurationRequest)
+            throws AmazonServiceException, SdkClientException {
+        getS3Client().deleteBucketReplicationConfiguration(deleteBucketReplicationConfigurationRequest);
+    }
+
+    @Override
+    public boolean doesObjectExist(String bucketName, String objectName)
+            throws AmazonServiceException, SdkClientException {
+        return getS3Client().doesObjectExist(bucketName, objectName);
+    }
+
+    @Override
+    public BucketAccelerateConfiguration getBucketAccelerateConfiguration(String bucketName)
+            throws AmazonServiceException, SdkClientException {
+        return getS3Client().getBucketAccelerateConfiguration(bucketName);
+    }
+
+    @Override
+    public BucketAccelerateConfiguration getBucketAccelerateConfiguration(
+            GetBucketAccelerateConfigurationRequest getBucketAccelerateConfigurationRequest)
+            throws AmazonServiceException, SdkClientException {
+        return getS3Client().getBucketAccelerateConfiguration(getBucketAccelerateConfigurationRequest);
+    }
+
+    @Override
+    public void setBucketAccelerateConfiguration(String bucketName,
+            BucketAccelerateConfiguration accelerateConfiguration) throws AmazonServiceException, SdkClientException {
+        getS3Client().setBucketAccelerateConfiguration(bucketName, accelerateConfiguration);
+    }
+
+    @Override
+    public void setBucketAccelerateConfiguration(
+            SetBucketAccelerateConfigurationRequest setBucketAccelerateConfigurationRequest)
+            throws AmazonServiceException, SdkClientException {
+        getS3Client().setBucketAccelerateConfiguration(setBucketAccelerateConfigurationRequest);
+    }
+
+    @Override
+    public DeleteBucketMetricsConfigurationResult deleteBucketMetricsConfiguration(String bucketName, String id)
+            throws AmazonServiceException, SdkClientException {
+        return getS3Client().deleteBucketMetricsConfiguration(bucketName, id);
+    }
+
+    @Override
+    public DeleteBucketMetricsConfigurationResult deleteBucketMetricsConfiguration(
+            DeleteBucketMetricsConfigurationRequest deleteBucketMetricsConfigurationRequest)
+            throws AmazonServiceException, SdkClientException {
+        return getS3Client().deleteBucketMetricsConfiguration(deleteBucketMetricsConfigurationRequest);
+    }
+
+    @Override
+    public GetBucketMetricsConfigurationResult getBucketMetricsConfiguration(String bucketName, String id)
+            throws AmazonServiceException, SdkClientException {
+        return getS3Client().getBucketMetricsConfiguration(bucketName, id);
+    }
+
+    @Override
+    public GetBucketMetricsConfigurationResult getBucketMetricsConfiguration(
+            GetBucketMetricsConfigurationRequest getBucketMetricsConfigurationRequest)
+            throws AmazonServiceException, SdkClientException {
+        return getS3Client().getBucketMetricsConfiguration(getBucketMetricsConfigurationRequest);
+    }
+
+    @Override
+    public SetBucketMetricsConfigurationResult setBucketMetricsConfiguration(String bucketName,
+            MetricsConfiguration metricsConfiguration) throws AmazonServiceException, SdkClientException {
+        return getS3Client().setBucketMetricsConfiguration(bucketName, metricsConfiguration);
+    }
+
+    @Override
+    public SetBucketMetricsConfigurationResult setBucketMetricsConfiguration(
+            SetBucketMetricsConfigurationRequest setBucketMetricsConfigurationRequest)
+            throws AmazonServiceException, SdkClientException {
+        return getS3Client().setBucketMetricsConfiguration(setBucketMetricsConfigurationRequest);
+    }
+
+    @Override
+    public ListBucketMetricsConfigurationsResult listBucketMetricsConfigurations(
+            ListBucketMetricsConfigurationsRequest listBucketMetricsConfigurationsRequest)
+            throws AmazonServiceException, SdkClientException {
+        return getS3Client().listBucketMetricsConfigurations(listBucketMetricsConfigurationsRequest);
+    }
+
+    @Override
+    public DeleteBucketAnalyticsConfigurationResult deleteBucketAnalyticsConfiguration(String bucketName, String id)
+            throws AmazonServiceException, SdkClientException {
+        return getS3Client().deleteBucketAnalyticsConfiguration(bucketName, id);
+    }
+
+    @Override
+    public DeleteBucketAnalyticsConfigurationResult deleteBucketAnalyticsConfiguration(
+            DeleteBucketAnalyticsConfigurationRequest deleteBucketAnalyticsConfigurationRequest)
+            throws AmazonServiceException, SdkClientException {
+        return getS3Client().deleteBucketAnalyticsConfiguration(deleteBucketAnalyticsConfigurationRequest);
+    }
+
+    @Override
+    public GetBucketAnalyticsConfigurationResult getBucketAnalyticsConfiguration(String bucketName, String id)
+            throws AmazonServiceException, SdkClientException {
+        return getS3Client().getBucketAnalyticsConfiguration(bucketName, id);
+    }
+
+    @Override
+    public GetBucketAnalyticsConfigurationResult getBucketAnalyticsConfiguration(
+            GetBucketAnalyticsConfigurationRequest getBucketAnalyticsConfigurationRequest)
+            throws AmazonServiceException, SdkClientException {
+        return getS3Client().getBucketAnalyticsConfiguration(getBucketAnalyticsConfigurationRequest);
+    }
+
+    @Override
+    public SetBucketAnalyticsConfigurationResult setBucketAnalyticsConfiguration(String bucketName,
+            AnalyticsConfiguration analyticsConfiguration) throws AmazonServiceException, SdkClientException {
+        return getS3Client().setBucketAnalyticsConfiguration(bucketName, analyticsConfiguration);
+    }
+
+    @Override
+    public SetBucketAnalyticsConfigurationResult setBucketAnalyticsConfiguration(
+            SetBucketAnalyticsConfigurationRequest setBucketAnalyticsConfigurationRequest)
+            throws AmazonServiceException, SdkClientException {
+        return getS3Client().setBucketAnalyticsConfiguration(setBucketAnalyticsConfigurationRequest);
+    }
+
+    @Override
+    public ListBucketAnalyticsConfigurationsResult listBucketAnalyticsConfigurations(
+            ListBucketAnalyticsConfigurationsRequest listBucketAnalyticsConfigurationsRequest)
+            throws AmazonServiceException, SdkClientException {
+        return getS3Client().listBucketAnalyticsConfigurations(listBucketAnalyticsConfigurationsRequest);
+    }
+
+    @Override
+    public DeleteBucketInventoryConfigurationResult deleteBucketInventoryConfiguration(String bucketName, String id)
+            throws AmazonServiceException, SdkClientException {
+        return getS3Client().deleteBucketInventoryConfiguration(bucketName, id);
+    }
+
+    @Override
+    public DeleteBucketInventoryConfigurationResult deleteBucketInventoryConfiguration(
+            DeleteBucketInventoryConfigurationRequest deleteBucketInventoryConfigurationRequest)
+            throws AmazonServiceException, SdkClientException {
+        return getS3Client().deleteBucketInventoryConfiguration(deleteBucketInventoryConfigurationRequest);
+    }
+
+    @Override
+    public GetBucketInventoryConfigurationResult getBucketInventoryConfiguration(String bucketName, String id)
+            throws AmazonServiceException, SdkClientException {
+        return getS3Client().getBucketInventoryConfiguration(bucketName, id);
+    }
+
+    @Override
+    public GetBucketInventoryConfigurationResult getBucketInventoryConfiguration(
+            GetBucketInventoryConfigurationRequest getBucketInventoryConfigurationRequest)
+            throws AmazonServiceException, SdkClientException {
+        return getS3Client().getBucketInventoryConfiguration(getBucketInventoryConfigurationRequest);
+    }
+
+    @Override
+    public SetBucketInventoryConfigurationResult setBucketInventoryConfiguration(String bucketName,
+            InventoryConfiguration inventoryConfiguration) throws AmazonServiceException, SdkClientException {
+        return getS3Client().setBucketInventoryConfiguration(bucketName, inventoryConfiguration);
+    }
+
+    @Override
+    public SetBucketInventoryConfigurationResult setBucketInventoryConfiguration(
+            SetBucketInventoryConfigurationRequest setBucketInventoryConfigurationRequest)
+            throws AmazonServiceException, SdkClientException {
+        return getS3Client().setBucketInventoryConfiguration(setBucketInventoryConfigurationRequest);
+    }
+
+    @Override
+    public ListBucketInventoryConfigurationsResult listBucketInventoryConfigurations(
+            ListBucketInventoryConfigurationsRequest listBucketInventoryConfigurationsRequest)
+            throws AmazonServiceException, SdkClientException {
+        return getS3Client().listBucketInventoryConfigurations(listBucketInventoryConfigurationsRequest);
+    }
+
+    @Override
+    public DeleteBucketEncryptionResult deleteBucketEncryption(String bucketName)
+            throws AmazonServiceException, SdkClientException {
+        return getS3Client().deleteBucketEncryption(bucketName);
+    }
+
+    @Override
+    public DeleteBucketEncryptionResult deleteBucketEncryption(
+            DeleteBucketEncryptionRequest deleteBucketEncryptionRequest)
+            throws AmazonServiceException, SdkClientException {
+        return getS3Client().deleteBucketEncryption(deleteBucketEncryptionRequest);
+    }
+
+    @Override
+    public GetBucketEncryptionResult getBucketEncryption(String bucketName)
+            throws AmazonServiceException, SdkClientException {
+        return getS3Client().getBucketEncryption(bucketName);
+    }
+
+    @Override
+    public GetBucketEncryptionResult getBucketEncryption(GetBucketEncryptionRequest getBucketEncryptionRequest)
+            throws AmazonServiceException, SdkClientException {
+        return getS3Client().getBucketEncryption(getBucketEncryptionRequest);
+    }
+
+    @Override
+    public SetBucketEncryptionResult setBucketEncryption(SetBucketEncryptionRequest setBucketEncryptionRequest)
+            throws AmazonServiceException, SdkClientException {
+        return getS3Client().setBucketEncryption(setBucketEncryptionRequest);
+    }
+
+    @Override
+    public Region getRegion() {
+        return getS3Client().getRegion();
+    }
+
+    @Override
+    public String getRegionName() {
+        return getS3Client().getRegionName();
+    }
+
+    @Override
+    public URL getUrl(String bucketName, String key) {
+        return getS3Client().getUrl(bucketName, key);
+    }
+
+    @Override
+    public AmazonS3Waiters waiters() {
+        return getS3Client().waiters();
+    }
+}
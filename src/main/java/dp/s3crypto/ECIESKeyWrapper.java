@@ -0,0 +1,125 @@
+package dp.s3crypto;
+
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.InvalidKeyException;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.MessageDigest;
+import java.security.PublicKey;
+import java.security.interfaces.ECPrivateKey;
+import java.security.interfaces.ECPublicKey;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.Arrays;
+
+import javax.crypto.KeyAgreement;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Wraps PSKs for an EC key pair using ECIES: an ephemeral key pair is agreed
+ * with the recipient's public key by ECDH, a key encryption key is derived from
+ * the shared secret with the ANSI X9.63 KDF over SHA-256, and the PSK is
+ * wrapped with AES Key Wrap. The wrapped key is the length of the encoded
+ * ephemeral public key (two bytes), the encoded key itself, then the AES
+ * wrapped PSK, about half the size of an RSA-2048 wrapped key.
+ */
+public class ECIESKeyWrapper implements KeyWrapper, CipherProvidersAware {
+
+    public static final String ALGORITHM = "ECIES";
+
+    private static final int KEK_LENGTH = 16;
+    private static final String NO_PRIVATE_KEY_MESSAGE = "you have not provided a private key and therefore do not have permission to complete this action";
+
+    private ECPublicKey pubKey;
+    private ECPrivateKey privKey;
+    private CipherProviders cipherProviders = new CipherProviders();
+
+    /**
+     * Creates a wrapper which can both wrap and unwrap.
+     */
+    public ECIESKeyWrapper(ECPublicKey pubKey, ECPrivateKey privKey) {
+        this.pubKey = pubKey;
+        this.privKey = privKey;
+    }
+
+    /**
+     * Creates a wrapper which can only wrap.
+     */
+    public ECIESKeyWrapper(ECPublicKey pubKey) {
+        this(pubKey, null);
+    }
+
+    /**
+     * Applies to the AES key wrap. The EC key agreement uses the default
+     * provider.
+     */
+    @Override
+    public void setCipherProviders(CipherProviders cipherProviders) {
+        this.cipherProviders = cipherProviders;
+    }
+
+    @Override
+    public String getAlgorithm() {
+        return ALGORITHM;
+    }
+
+    @Override
+    public byte[] wrapKey(byte[] psk) throws GeneralSecurityException {
+        KeyPairGenerator kpg = KeyPairGenerator.getInstance("EC");
+        kpg.initialize(pubKey.getParams());
+        KeyPair ephemeral = kpg.generateKeyPair();
+        byte[] ephemeralPublic = ephemeral.getPublic().getEncoded();
+
+        KeyAgreement agreement = KeyAgreement.getInstance("ECDH");
+        agreement.init(ephemeral.getPrivate());
+        agreement.doPhase(pubKey, true);
+
+        byte[] kek = deriveKey(agreement.generateSecret(), ephemeralPublic);
+        byte[] wrapped = AESKeyWrapper.wrap(cipherProviders, new SecretKeySpec(kek, "AES"), psk);
+
+        ByteBuffer out = ByteBuffer.allocate(2 + ephemeralPublic.length + wrapped.length);
+        out.putShort((short) ephemeralPublic.length);
+        out.put(ephemeralPublic);
+        out.put(wrapped);
+        return out.array();
+    }
+
+    @Override
+    public byte[] unwrapKey(byte[] wrappedKey) throws GeneralSecurityException {
+        if (privKey == null) {
+            throw new InvalidKeyException(NO_PRIVATE_KEY_MESSAGE);
+        }
+
+        ByteBuffer in = ByteBuffer.wrap(wrappedKey);
+        int ephemeralLength = in.getShort() & 0xffff;
+        if (ephemeralLength > in.remaining()) {
+            throw new InvalidKeyException("wrapped key is truncated");
+        }
+        byte[] ephemeralPublic = new byte[ephemeralLength];
+        in.get(ephemeralPublic);
+        byte[] wrapped = new byte[in.remaining()];
+        in.get(wrapped);
+
+        PublicKey ephemeral = KeyFactory.getInstance("EC").generatePublic(new X509EncodedKeySpec(ephemeralPublic));
+
+        KeyAgreement agreement = KeyAgreement.getInstance("ECDH");
+        agreement.init(privKey);
+        agreement.doPhase(ephemeral, true);
+
+        byte[] kek = deriveKey(agreement.generateSecret(), ephemeralPublic);
+        return AESKeyWrapper.unwrap(cipherProviders, new SecretKeySpec(kek, "AES"), wrapped);
+    }
+
+    /**
+     * ANSI X9.63 KDF with SHA-256, using the encoded ephemeral public key as the
+     * shared info. A single counter block covers the key length.
+     */
+    private byte[] deriveKey(byte[] sharedSecret, byte[] sharedInfo) throws GeneralSecurityException {
+        MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
+        sha256.update(sharedSecret);
+        sha256.update(new byte[] { 0, 0, 0, 1 });
+        sha256.update(sharedInfo);
+        return Arrays.copyOf(sha256.digest(), KEK_LENGTH);
+    }
+}
@@ -0,0 +1,22 @@
+package dp.s3crypto;
+
+import java.security.GeneralSecurityException;
+
+/**
+ * Wraps and unwraps the PSK used to encrypt object content. The algorithm name
+ * is stored as object metadata alongside the wrapped PSK, so that objects
+ * written with different wrappers can be read by a client which has them all
+ * registered.
+ */
+public interface KeyWrapper {
+
+    /**
+     * @return the name recorded in object metadata for keys wrapped by this
+     *         wrapper
+     */
+    String getAlgorithm();
+
+    byte[] wrapKey(byte[] psk) throws GeneralSecurityException;
+
+    byte[] unwrapKey(byte[] wrappedKey) throws GeneralSecurityException;
+}
@@ -0,0 +1,152 @@
+package dp.s3crypto;
+
+import java.util.concurrent.TimeUnit;
+
+import com.amazonaws.SdkClientException;
+
+/**
+ * Limits the heap used for buffering by an S3CryptoClient. Operations reserve
+ * the bytes they will buffer before starting and release them when done, and
+ * when the budget is used up a reservation either waits, waits up to a
+ * timeout, or fails straight away with an SdkClientException, depending on how
+ * the budget was created.
+ *
+ * A reservation larger than the whole budget is reduced to the budget, so a
+ * single large operation can still run, alone.
+ *
+ * The same budget may be shared by several clients. A thread which already
+ * holds a reservation, such as an open stream from getObjectWithPSK, and makes
+ * another can wait forever on a blocking budget; use a timeout for such
+ * workloads.
+ */
+public class MemoryBudget {
+
+    private static final long WAIT_FOREVER = -1;
+
+    private final long limit;
+    private final long timeoutNanos;
+
+    private long reserved;
+    private long peakReserved;
+    private int waiting;
+    private long rejected;
+
+    private MemoryBudget(long limit, long timeoutNanos) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("memory budget must be positive: " + limit);
+        }
+        this.limit = limit;
+        this.timeoutNanos = timeoutNanos;
+    }
+
+    /**
+     * Creates a budget where reservations wait until enough bytes are released.
+     */
+    public static MemoryBudget blocking(long limitBytes) {
+        return new MemoryBudget(limitBytes, WAIT_FOREVER);
+    }
+
+    /**
+     * Creates a budget where reservations wait up to the timeout for enough bytes
+     * to be released, then fail.
+     */
+    public static MemoryBudget withTimeout(long limitBytes, long timeout, TimeUnit unit) {
+        return new MemoryBudget(limitBytes, Math.max(0, unit.toNanos(timeout)));
+    }
+
+    /**
+     * Creates a budget where reservations fail as soon as there are not enough
+     * bytes available.
+     */
+    public static MemoryBudget failFast(long limitBytes) {
+        return new MemoryBudget(limitBytes, 0);
+    }
+
+    /**
+     * Reserves bytes from the budget, which must be passed to release when the
+     * buffers are no longer needed.
+     *
+     * @return the number of bytes actually reserved
+     * @throws SdkClientException
+     *             if the bytes could not be reserved in time, or the thread was
+     *             interrupted while waiting
+     */
+    public synchronized long reserve(long bytes) throws SdkClientException {
+        if (bytes <= 0) {
+            return 0;
+        }
+        bytes = Math.min(bytes, limit);
+
+        long deadline = System.nanoTime() + timeoutNanos;
+        waiting++;
+        try {
+            while (reserved + bytes > limit) {
+                long remaining = deadline - System.nanoTime();
+                if (timeoutNanos != WAIT_FOREVER && remaining <= 0) {
+                    rejected++;
+                    throw new SdkClientException("memory budget of " + limit + " bytes exhausted: " + reserved
+                            + " bytes reserved, " + bytes + " requested");
+                }
+                if (timeoutNanos == WAIT_FOREVER) {
+                    wait();
+                } else {
+                    TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SdkClientException("interrupted waiting for " + bytes + " bytes of memory budget", e);
+        } finally {
+            waiting--;
+        }
+
+        reserved += bytes;
+        peakReserved = Math.max(peakReserved, reserved);
+        return bytes;
+    }
+
+    /**
+     * Returns bytes previously reserved to the budget.
+     */
+    public synchronized void release(long bytes) {
+        if (bytes <= 0) {
+            return;
+        }
+        reserved = Math.max(0, reserved - bytes);
+        notifyAll();
+    }
+
+    public long getLimit() {
+        return limit;
+    }
+
+    public synchronized long getReserved() {
+        return reserved;
+    }
+
+    public synchronized long getPeakReserved() {
+        return peakReserved;
+    }
+
+    /**
+     * @return the number of reservations currently waiting for bytes to be
+     *         released
+     */
+    public synchronized int getWaitingCount() {
+        return waiting;
+    }
+
+    /**
+     * @return the number of reservations which failed because the budget was
+     *         used up
+     */
+    public synchronized long getRejectedCount() {
+        return rejected;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "MemoryBudget [limit=" + limit + ", reserved=" + reserved + ", peakReserved=" + peakReserved
+                + ", waiting=" + waiting + ", rejected=" + rejected + "]";
+    }
+}
@@ -0,0 +1,75 @@
+package dp.s3crypto;
+
+import java.security.GeneralSecurityException;
+import java.security.InvalidKeyException;
+import java.security.KeyFactory;
+import java.security.interfaces.RSAPrivateCrtKey;
+import java.security.interfaces.RSAPrivateKey;
+import java.security.interfaces.RSAPublicKey;
+import java.security.spec.RSAPublicKeySpec;
+
+import javax.crypto.Cipher;
+
+/**
+ * Wraps PSKs with RSA-OAEP. This is the format used by the go s3crypto client,
+ * and is assumed for objects which do not record a wrapping algorithm.
+ */
+public class RSAKeyWrapper implements KeyWrapper, CipherProvidersAware {
+
+    public static final String ALGORITHM = "RSA-OAEP";
+
+    private static final String NO_PRIVATE_KEY_MESSAGE = "you have not provided a private key and therefore do not have permission to complete this action";
+
+    private RSAPrivateKey privKey;
+    private RSAPublicKey pubKey;
+    private CipherProviders cipherProviders = new CipherProviders();
+
+    /**
+     * Creates a wrapper which can both wrap and unwrap, deriving the public key
+     * from the given private key.
+     */
+    public RSAKeyWrapper(RSAPrivateKey privKey) throws GeneralSecurityException {
+        RSAPrivateCrtKey privk = (RSAPrivateCrtKey) privKey;
+        RSAPublicKeySpec publicKeySpec = new RSAPublicKeySpec(privk.getModulus(), privk.getPublicExponent());
+
+        this.pubKey = (RSAPublicKey) KeyFactory.getInstance("RSA").generatePublic(publicKeySpec);
+        this.privKey = privKey;
+    }
+
+    /**
+     * Creates a wrapper which can only wrap.
+     */
+    public RSAKeyWrapper(RSAPublicKey pubKey) {
+        this.pubKey = pubKey;
+    }
+
+    @Override
+    public void setCipherProviders(CipherProviders cipherProviders) {
+        this.cipherProviders = cipherProviders;
+    }
+
+    @Override
+    public String getAlgorithm() {
+        return ALGORITHM;
+    }
+
+    @Override
+    public byte[] wrapKey(byte[] psk) throws GeneralSecurityException {
+        Cipher cipher = cipherProviders.getCipher(CipherProviders.RSA_TRANSFORMATION);
+
+        cipher.init(Cipher.ENCRYPT_MODE, pubKey);
+        return cipher.doFinal(psk);
+    }
+
+    @Override
+    public byte[] unwrapKey(byte[] wrappedKey) throws GeneralSecurityException {
+        if (privKey == null) {
+            throw new InvalidKeyException(NO_PRIVATE_KEY_MESSAGE);
+        }
+
+        Cipher cipher = cipherProviders.getCipher(CipherProviders.RSA_TRANSFORMATION);
+
+        cipher.init(Cipher.DECRYPT_MODE, privKey);
+        return cipher.doFinal(wrappedKey);
+    }
+}
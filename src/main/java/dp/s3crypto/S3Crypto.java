@@ -1,11 +1,14 @@
 package dp.s3crypto;
 
 import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 
 import com.amazonaws.SdkClientException;
 import com.amazonaws.services.s3.AmazonS3;
 import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
 import com.amazonaws.services.s3.model.ObjectMetadata;
 import com.amazonaws.services.s3.model.PutObjectRequest;
 import com.amazonaws.services.s3.model.PutObjectResult;
@@ -34,4 +37,24 @@ public interface S3Crypto extends AmazonS3 {
 
 	S3Object getObjectWithPSK(GetObjectRequest getObjectRequest, byte[] psk)
 			throws SdkClientException;
+
+	S3CryptoFlow.Publisher<ByteBuffer> getObjectPublisher(GetObjectRequest getObjectRequest);
+
+	S3CryptoFlow.Publisher<ByteBuffer> getObjectPublisherWithPSK(GetObjectRequest getObjectRequest, byte[] psk);
+
+	S3CryptoUploadSubscriber putObjectSubscriber(InitiateMultipartUploadRequest initiateMultipartUploadRequest);
+
+	S3CryptoUploadSubscriber putObjectSubscriberWithPSK(InitiateMultipartUploadRequest initiateMultipartUploadRequest,
+			byte[] psk);
+
+	S3CryptoPackWriter newPackWriter(String bucketName, String key)
+			throws SdkClientException;
+
+	S3CryptoPackWriter newPackWriterWithPSK(String bucketName, String key, byte[] psk);
+
+	S3CryptoPackReader openPackReader(String bucketName, String key)
+			throws IOException;
+
+	S3CryptoPackReader openPackReaderWithPSK(String bucketName, String key, byte[] psk)
+			throws IOException;
 }
@@ -3,10 +3,13 @@ package dp.s3crypto;
 import com.amazonaws.AmazonServiceException;
 import com.amazonaws.ClientConfiguration;
 import com.amazonaws.SdkClientException;
-import com.amazonaws.services.s3.AmazonS3Client;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.Headers;
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
 import com.amazonaws.services.s3.model.AccessControlList;
 import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
 import com.amazonaws.services.s3.model.CompleteMultipartUploadResult;
+import com.amazonaws.services.s3.model.GetObjectMetadataRequest;
 import com.amazonaws.services.s3.model.GetObjectRequest;
 import com.amazonaws.services.s3.model.GroupGrantee;
 import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
@@ -16,10 +19,13 @@ import com.amazonaws.services.s3.model.Permission;
 import com.amazonaws.services.s3.model.PutObjectRequest;
 import com.amazonaws.services.s3.model.PutObjectResult;
 import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.model.SSECustomerKey;
 import com.amazonaws.services.s3.model.UploadPartRequest;
 import com.amazonaws.services.s3.model.UploadPartResult;
+import org.apache.commons.codec.binary.Base64;
 import org.apache.commons.codec.binary.Hex;
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.ProxyInputStream;
 
 import javax.crypto.Cipher;
 import javax.crypto.spec.IvParameterSpec;
@@ -31,68 +37,214 @@ import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.security.KeyFactory;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
-import java.security.PublicKey;
-import java.security.interfaces.RSAPrivateCrtKey;
 import java.security.interfaces.RSAPrivateKey;
 import java.security.interfaces.RSAPublicKey;
-import java.security.spec.InvalidKeySpecException;
-import java.security.spec.RSAPublicKeySpec;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
-public class S3CryptoClient extends AmazonS3Client implements S3Crypto {
+public class S3CryptoClient extends DelegatingS3Client implements S3Crypto {
 
-    private RSAPrivateKey privKey;
-    private RSAPublicKey pubKey;
+    private KeyWrapper keyWrapper;
+    private Map<String, KeyWrapper> keyWrappers = new HashMap<String, KeyWrapper>();
     private boolean hasUserDefinedPSK = false;
     private final String ENCRYPTION_KEY_HEADER = "Pskencrypted";
-    private AmazonS3Client s3Client;
-    private final String NO_PRIVATE_KEY_MESSAGE = "you have not provided a private key and therefore do not have permission to complete this action";
+    private final String KEY_WRAP_ALGORITHM_HEADER = "Pskalgorithm";
+    private final String PLAINTEXT_DIGEST_HEADER = "Plaintext-Sha256";
+    private final int ENCRYPTION_BUFFER_SIZE = 64 * 1024;
+    private boolean storePlainTextDigest = false;
+    private Executor streamingExecutor;
+    private AmazonS3 s3Client;
+    private boolean ownsS3Client;
+    private ConnectionPoolStats connectionPoolStats;
+    private CipherProviders cipherProviders = new CipherProviders();
+    private MemoryBudget memoryBudget;
+    private final String NO_KEY_WRAPPER_MESSAGE = "you have not provided a key for %s and therefore do not have permission to complete this action";
 
     public S3CryptoClient(ClientConfiguration clientConfiguration, RSAPrivateKey privKey) {
-        s3Client = new AmazonS3Client();
-        s3Client.builder().setClientConfiguration(clientConfiguration);
-        s3Client.builder().build();
-
-        RSAPrivateCrtKey privk = (RSAPrivateCrtKey) privKey;
-        RSAPublicKeySpec publicKeySpec = new java.security.spec.RSAPublicKeySpec(privk.getModulus(),
-                privk.getPublicExponent());
-        KeyFactory keyFactory;
+        createS3Client(clientConfiguration);
+
         try {
-            keyFactory = KeyFactory.getInstance("RSA");
-            PublicKey pubKey = keyFactory.generatePublic(publicKeySpec);
-            this.pubKey = (RSAPublicKey) pubKey;
-        } catch (NoSuchAlgorithmException e) {
-            e.printStackTrace();
-        } catch (InvalidKeySpecException e) {
+            setKeyWrapper(new RSAKeyWrapper(privKey));
+        } catch (GeneralSecurityException e) {
             e.printStackTrace();
         }
-
-        this.privKey = privKey;
     }
 
-    public S3CryptoClient(AmazonS3Client s3Client) {
+    public S3CryptoClient(AmazonS3 s3Client) {
         this.s3Client = s3Client;
         this.hasUserDefinedPSK = true;
     }
 
+    public S3CryptoClient(AmazonS3 s3Client, KeyWrapper keyWrapper) {
+        this.s3Client = s3Client;
+        setKeyWrapper(keyWrapper);
+    }
+
     public S3CryptoClient(ClientConfiguration clientConfiguration, RSAPublicKey pubKey) {
-        s3Client = new AmazonS3Client();
-        s3Client.builder().setClientConfiguration(clientConfiguration);
-        s3Client.builder().build();
-        this.pubKey = pubKey;
+        createS3Client(clientConfiguration);
+        setKeyWrapper(new RSAKeyWrapper(pubKey));
+    }
+
+    public S3CryptoClient(ClientConfiguration clientConfiguration, KeyWrapper keyWrapper) {
+        createS3Client(clientConfiguration);
+        setKeyWrapper(keyWrapper);
     }
 
     public S3CryptoClient(ClientConfiguration clientConfiguration) {
-        s3Client = new AmazonS3Client();
-        s3Client.builder().setClientConfiguration(clientConfiguration);
-        s3Client.builder().build();
+        createS3Client(clientConfiguration);
         this.hasUserDefinedPSK = true;
     }
 
+    S3CryptoClient(AmazonS3 s3Client, boolean ownsS3Client, KeyWrapper keyWrapper,
+            ConnectionPoolStats connectionPoolStats) {
+        this.s3Client = s3Client;
+        this.ownsS3Client = ownsS3Client;
+        this.connectionPoolStats = connectionPoolStats;
+        if (keyWrapper == null) {
+            this.hasUserDefinedPSK = true;
+        } else {
+            setKeyWrapper(keyWrapper);
+        }
+    }
+
+    private void createS3Client(ClientConfiguration clientConfiguration) {
+        ClientConfiguration config = clientConfiguration == null ? new ClientConfiguration() : clientConfiguration;
+        s3Client = S3CryptoClientBuilder.newS3Client(config, null, null, null);
+        ownsS3Client = true;
+    }
+
+    /**
+     * Shuts down the S3 client if this client created it. A client passed in to
+     * be shared is left for its owner to shut down.
+     */
+    @Override
+    public void shutdown() {
+        super.shutdown();
+        if (ownsS3Client) {
+            s3Client.shutdown();
+        }
+    }
+
+    /**
+     * Returns the connection pool usage of the S3 client, or null unless the
+     * client was built with S3CryptoClientBuilder.withConnectionPoolStats.
+     */
+    public ConnectionPoolStats getConnectionPoolStats() {
+        return connectionPoolStats;
+    }
+
+    /**
+     * Registers an additional key wrapper which is used to unwrap the PSK of
+     * objects recording its algorithm, for reading buckets containing objects
+     * written with more than one key wrapping algorithm. New objects are always
+     * written with the key wrapper the client was created with.
+     */
+    public void registerKeyWrapper(KeyWrapper keyWrapper) {
+        keyWrappers.put(keyWrapper.getAlgorithm(), keyWrapper);
+        if (keyWrapper instanceof CipherProvidersAware) {
+            ((CipherProvidersAware) keyWrapper).setCipherProviders(cipherProviders);
+        }
+    }
+
+    private void setKeyWrapper(KeyWrapper keyWrapper) {
+        this.keyWrapper = keyWrapper;
+        registerKeyWrapper(keyWrapper);
+    }
+
+    /**
+     * When enabled, putObject and putObjectWithPSK store a SHA-256 digest of the
+     * plaintext as object metadata, computed in the same pass as the encryption.
+     * The getObject methods verify the decrypted content against it whenever it
+     * is present and the whole object is requested.
+     *
+     * No digest is stored for bodies larger than one chunk. putObject encrypts
+     * them as a single stream, but the chunked readers restart the cipher at
+     * every chunk, so they would always fail the check.
+     */
+    public void setStorePlainTextDigest(boolean storePlainTextDigest) {
+        this.storePlainTextDigest = storePlainTextDigest;
+    }
+
+    /**
+     * Sets the JCA providers used for content encryption and, for the built in
+     * key wrappers, key wrapping. By default the highest priority provider is
+     * used; CipherProviders.benchmark picks the fastest installed provider
+     * instead.
+     */
+    public void setCipherProviders(CipherProviders cipherProviders) {
+        this.cipherProviders = cipherProviders;
+        for (KeyWrapper registered : keyWrappers.values()) {
+            if (registered instanceof CipherProvidersAware) {
+                ((CipherProvidersAware) registered).setCipherProviders(cipherProviders);
+            }
+        }
+    }
+
+    /**
+     * Sets the budget from which putObject, uploadPart, getObject and the streams
+     * returned by getObjectWithPSK reserve their buffers before starting, or null
+     * for no limit. Puts and parts reserve their ciphertext buffer, allocated
+     * once at the content length when it is known, otherwise reserving each
+     * larger buffer as it grows; getObject reserves twice the object size, for
+     * the ciphertext and plaintext, while decrypting; streams reserve a
+     * ciphertext and plaintext chunk until closed or fully read.
+     *
+     * To reserve before its GET, getObject without a closed range first sends a
+     * HEAD for the object size, so with a budget set each such call makes two
+     * requests. If the object is replaced by a larger one between them, the
+     * reservation is topped up from the GET's Content-Length.
+     */
+    public void setMemoryBudget(MemoryBudget memoryBudget) {
+        this.memoryBudget = memoryBudget;
+    }
+
+    public MemoryBudget getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * Sets the executor used by publishers and upload subscribers to fetch,
+     * decrypt, encrypt and upload content, so that no S3 call is made on the
+     * thread signalling them. When not set, a shared pool of daemon threads is
+     * used.
+     */
+    public void setStreamingExecutor(Executor streamingExecutor) {
+        this.streamingExecutor = streamingExecutor;
+    }
+
+    Executor getStreamingExecutor() {
+        return streamingExecutor != null ? streamingExecutor : DefaultStreamingExecutor.INSTANCE;
+    }
+
+    /**
+     * Holds the pool used when no streaming executor is set, created on first
+     * use.
+     */
+    private static class DefaultStreamingExecutor {
+
+        static final ExecutorService INSTANCE = Executors.newCachedThreadPool(new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "s3crypto-streaming-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
     /**
      * Wraps the SDK method by creating an encrypted PSK which is stored as object
      * metadata and temporarily as its own file while the multipart upload is in
@@ -118,6 +270,7 @@ public class S3CryptoClient extends AmazonS3Client implements S3Crypto {
                 }
                 Map<String, String> userMetadata = new HashMap<String, String>();
                 userMetadata.put(ENCRYPTION_KEY_HEADER, encodedKey);
+                userMetadata.put(KEY_WRAP_ALGORITHM_HEADER, keyWrapper.getAlgorithm());
                 keyMetadata.setUserMetadata(userMetadata);
                 keyMetadata.setContentLength(encodedKey.getBytes().length);
                 initiateMultipartUploadRequest.setObjectMetadata(keyMetadata);
@@ -132,7 +285,8 @@ public class S3CryptoClient extends AmazonS3Client implements S3Crypto {
                 s3Client.putObject(putObjectRequest);
 
             } catch (Exception e) {
-                e.printStackTrace();
+                throw cryptoFailure("could not store the encrypted PSK for " + initiateMultipartUploadRequest.getKey(),
+                        e);
             }
         }
 
@@ -150,28 +304,12 @@ public class S3CryptoClient extends AmazonS3Client implements S3Crypto {
      */
     @Override
     public UploadPartResult uploadPart(UploadPartRequest uploadPartRequest) throws SdkClientException {
-        String encodedKey = getEncryptedKey(uploadPartRequest);
-        InputStream content = uploadPartRequest.getInputStream();
-
-        if (content == null) {
-            try {
-                content = new FileInputStream(uploadPartRequest.getFile());
-            } catch (FileNotFoundException e) {
-                e.printStackTrace();
-            } finally {
-                uploadPartRequest.setFile(null);
-            }
-        }
-
+        CipherTextBuffer cipherText = new CipherTextBuffer(contentLength(uploadPartRequest));
         try {
-            byte[] psk = decryptKey(encodedKey);
-            byte[] encodedContent = encryptObjectContent(psk, content);
-            uploadPartRequest.setInputStream(new ByteArrayInputStream(encodedContent));
-        } catch (Exception e) {
-            e.printStackTrace();
+            return encryptAndUploadPart(uploadPartRequest, null, cipherText);
+        } finally {
+            cipherText.release();
         }
-
-        return s3Client.uploadPart(uploadPartRequest);
     }
 
     /**
@@ -185,6 +323,20 @@ public class S3CryptoClient extends AmazonS3Client implements S3Crypto {
      */
     public UploadPartResult uploadPartWithPSK(UploadPartRequest uploadPartRequest, byte[] psk)
             throws SdkClientException {
+        CipherTextBuffer cipherText = new CipherTextBuffer(contentLength(uploadPartRequest));
+        try {
+            return encryptAndUploadPart(uploadPartRequest, psk, cipherText);
+        } finally {
+            cipherText.release();
+        }
+    }
+
+    /**
+     * Encrypts and uploads a part with the user defined psk or, when it is null,
+     * the PSK stored while the multipart upload is in progress.
+     */
+    private UploadPartResult encryptAndUploadPart(UploadPartRequest uploadPartRequest, byte[] psk,
+            CipherTextBuffer cipherText) {
         InputStream content = uploadPartRequest.getInputStream();
 
         if (content == null) {
@@ -197,14 +349,51 @@ public class S3CryptoClient extends AmazonS3Client implements S3Crypto {
             }
         }
 
+        Cipher cipher;
         try {
-            byte[] encodedContent = encryptObjectContent(psk, content);
-            uploadPartRequest.setInputStream(new ByteArrayInputStream(encodedContent));
+            if (psk == null) {
+                psk = getPSK(uploadPartRequest);
+            }
+            cipher = newContentCipher(Cipher.ENCRYPT_MODE, psk);
         } catch (Exception e) {
-            e.printStackTrace();
+            throw cryptoFailure(
+                    "could not encrypt part " + uploadPartRequest.getPartNumber() + " of " + uploadPartRequest.getKey(),
+                    e);
         }
+        return encryptAndUploadPart(uploadPartRequest, content, cipher, true, cipherText);
+    }
 
-        return s3Client.uploadPart(uploadPartRequest);
+    /**
+     * Encrypts and uploads a part as the continuation of the cipher, so that the
+     * parts of an upload form one cipher stream, the format read by getObject.
+     * Parts other than the last must be a whole number of cipher blocks.
+     */
+    UploadPartResult uploadPartWithCipher(UploadPartRequest uploadPartRequest, Cipher cipher, boolean lastPart)
+            throws SdkClientException {
+        CipherTextBuffer cipherText = new CipherTextBuffer(contentLength(uploadPartRequest));
+        try {
+            return encryptAndUploadPart(uploadPartRequest, uploadPartRequest.getInputStream(), cipher, lastPart,
+                    cipherText);
+        } finally {
+            cipherText.release();
+        }
+    }
+
+    private UploadPartResult encryptAndUploadPart(UploadPartRequest uploadPartRequest, InputStream content,
+            Cipher cipher, boolean lastPart, CipherTextBuffer cipherText) {
+        byte[] md5;
+        try {
+            md5 = encryptUploadPartContent(uploadPartRequest, cipher, lastPart, content, cipherText);
+        } catch (Exception e) {
+            throw cryptoFailure(
+                    "could not encrypt part " + uploadPartRequest.getPartNumber() + " of " + uploadPartRequest.getKey(),
+                    e);
+        }
+
+        UploadPartResult result = s3Client.uploadPart(uploadPartRequest);
+        verifyETag(result.getETag(), result.getSSEAlgorithm(), result.getSSECustomerAlgorithm(),
+                uploadPartRequest.getSSECustomerKey(), md5);
+        return result;
     }
 
     /**
@@ -270,7 +459,17 @@ public class S3CryptoClient extends AmazonS3Client implements S3Crypto {
      */
     @Override
     public PutObjectResult putObject(PutObjectRequest putObjectRequest) throws SdkClientException {
+        CipherTextBuffer cipherText = new CipherTextBuffer(contentLength(putObjectRequest));
+        try {
+            return encryptAndPutObject(putObjectRequest, cipherText);
+        } finally {
+            cipherText.release();
+        }
+    }
+
+    private PutObjectResult encryptAndPutObject(PutObjectRequest putObjectRequest, CipherTextBuffer cipherText) {
         byte[] psk = createPSK();
+        byte[] md5 = null;
         try {
             String encodedKey = encryptKey(psk);
 
@@ -280,6 +479,7 @@ public class S3CryptoClient extends AmazonS3Client implements S3Crypto {
             }
             Map<String, String> userMetadata = new HashMap<String, String>();
             userMetadata.put(ENCRYPTION_KEY_HEADER, encodedKey);
+            userMetadata.put(KEY_WRAP_ALGORITHM_HEADER, keyWrapper.getAlgorithm());
             objectMetadata.setUserMetadata(userMetadata);
             putObjectRequest.setMetadata(objectMetadata);
 
@@ -295,26 +495,39 @@ public class S3CryptoClient extends AmazonS3Client implements S3Crypto {
                 }
             }
 
-            byte[] encodedContent = encryptObjectContent(psk, content);
-
-            putObjectRequest.setInputStream(new ByteArrayInputStream(encodedContent));
+            md5 = encryptPutObjectContent(putObjectRequest, psk, false, content, cipherText);
 
         } catch (Exception e) {
-            e.printStackTrace();
+            throw cryptoFailure("could not encrypt " + putObjectRequest.getKey(), e);
         }
 
-        return s3Client.putObject(putObjectRequest);
+        PutObjectResult result = s3Client.putObject(putObjectRequest);
+        verifyETag(result.getETag(), result.getSSEAlgorithm(), result.getSSECustomerAlgorithm(),
+                putObjectRequest.getSSECustomerKey(), md5);
+        return result;
     }
 
     /**
-     * Wraps the SDK method by creating an encrypted PSK and storing as object
-     * metadata whilst using the PSK to encrypt the object content
+     * Wraps the SDK method by using the user defined PSK to encrypt the object
+     * content. Each chunk is encrypted on its own, the format read by
+     * getObjectWithPSK and getObjectPublisherWithPSK.
      *
      * @return PutObjectResult
      * @throws SdkClientException
      * @throws AmazonServiceException
      */
     public PutObjectResult putObjectWithPSK(PutObjectRequest putObjectRequest, byte[] psk) throws SdkClientException {
+        CipherTextBuffer cipherText = new CipherTextBuffer(contentLength(putObjectRequest));
+        try {
+            return encryptAndPutObject(putObjectRequest, psk, cipherText);
+        } finally {
+            cipherText.release();
+        }
+    }
+
+    private PutObjectResult encryptAndPutObject(PutObjectRequest putObjectRequest, byte[] psk,
+            CipherTextBuffer cipherText) {
+        byte[] md5 = null;
         try {
 
             InputStream content = putObjectRequest.getInputStream();
@@ -329,15 +542,16 @@ public class S3CryptoClient extends AmazonS3Client implements S3Crypto {
                 }
             }
 
-            byte[] encodedContent = encryptObjectContent(psk, content);
-
-            putObjectRequest.setInputStream(new ByteArrayInputStream(encodedContent));
+            md5 = encryptPutObjectContent(putObjectRequest, psk, true, content, cipherText);
 
         } catch (Exception e) {
-            e.printStackTrace();
+            throw cryptoFailure("could not encrypt " + putObjectRequest.getKey(), e);
         }
 
-        return s3Client.putObject(putObjectRequest);
+        PutObjectResult result = s3Client.putObject(putObjectRequest);
+        verifyETag(result.getETag(), result.getSSEAlgorithm(), result.getSSECustomerAlgorithm(),
+                putObjectRequest.getSSECustomerKey(), md5);
+        return result;
     }
 
     /**
@@ -386,6 +600,8 @@ public class S3CryptoClient extends AmazonS3Client implements S3Crypto {
             e.printStackTrace();
         } catch (IOException e) {
             e.printStackTrace();
+        } finally {
+            closeQuietly(s3Obj);
         }
 
         return s3Obj.getObjectMetadata();
@@ -412,6 +628,8 @@ public class S3CryptoClient extends AmazonS3Client implements S3Crypto {
             e.printStackTrace();
         } catch (IOException e) {
             e.printStackTrace();
+        } finally {
+            closeQuietly(s3Obj);
         }
 
         return s3Obj.getObjectMetadata();
@@ -427,20 +645,53 @@ public class S3CryptoClient extends AmazonS3Client implements S3Crypto {
      */
     @Override
     public S3Object getObject(GetObjectRequest getObjectRequest) throws SdkClientException {
-        S3Object obj = s3Client.getObject(getObjectRequest);
+        long reserved = memoryBudget == null ? 0 : reserve(2 * objectLength(getObjectRequest));
+        S3Object obj;
+        try {
+            obj = s3Client.getObject(getObjectRequest);
+        } catch (RuntimeException e) {
+            release(reserved);
+            throw e;
+        }
+
+        // the object may have been replaced by a larger one since the HEAD
+        long contentLength = knownContentLength(obj);
+        if (2 * contentLength > reserved) {
+            try {
+                reserved += reserveMore(reserved, 2 * contentLength - reserved);
+            } catch (RuntimeException e) {
+                release(reserved);
+                closeQuietly(obj);
+                throw e;
+            }
+        }
 
         ObjectMetadata metadata = obj.getObjectMetadata();
         String encodedKey = metadata.getUserMetadata().get(ENCRYPTION_KEY_HEADER);
+        byte[] decodedContent;
         try {
-            byte[] psk = decryptKey(encodedKey);
-            InputStream content = obj.getObjectContent();
-            byte[] decodedContent = decryptObjectContent(psk, content);
-
-            obj.setObjectContent(new ByteArrayInputStream(decodedContent));
+            byte[] psk = decryptKey(encodedKey, metadata.getUserMetadata().get(KEY_WRAP_ALGORITHM_HEADER));
+            decodedContent = decryptObjectContent(psk, obj.getObjectContent(), contentLength);
         } catch (Exception e) {
-            e.printStackTrace();
+            release(reserved);
+            closeQuietly(obj);
+            throw cryptoFailure("could not decrypt " + getObjectRequest.getKey(), e);
+        }
+
+        // the ciphertext has been read, only the plaintext is still buffered
+        reserved = trimReservation(reserved, decodedContent.length);
+
+        String expectedDigest = expectedPlainTextDigest(getObjectRequest, metadata.getUserMetadata());
+        if (expectedDigest != null) {
+            String actualDigest = Hex.encodeHexString(newDigest("SHA-256").digest(decodedContent));
+            if (!actualDigest.equalsIgnoreCase(expectedDigest)) {
+                release(reserved);
+                throw new SdkClientException("plaintext digest mismatch for " + getObjectRequest.getKey()
+                        + ": expected " + expectedDigest + " but was " + actualDigest);
+            }
         }
 
+        obj.setObjectContent(new ReservedInputStream(new ByteArrayInputStream(decodedContent), reserved));
         return obj;
     }
 
@@ -453,9 +704,19 @@ public class S3CryptoClient extends AmazonS3Client implements S3Crypto {
      * @throws AmazonServiceException
      */
     public S3Object getObjectWithPSK(GetObjectRequest getObjectRequest, byte[] psk) throws SdkClientException {
+        long reserved = reserve(S3CryptoInputStream.BUFFER_SIZE);
+        S3Object obj;
+        try {
+            obj = s3Client.getObject(getObjectRequest);
+        } catch (RuntimeException e) {
+            release(reserved);
+            throw e;
+        }
+        reserved = trimReservation(reserved, streamBufferSize(obj));
 
-        S3Object obj = s3Client.getObject(getObjectRequest);
-        S3CryptoInputStream cryptois = new S3CryptoInputStream(obj.getObjectContent(), psk);
+        String expectedDigest = expectedPlainTextDigest(getObjectRequest, obj.getObjectMetadata().getUserMetadata());
+        S3CryptoInputStream cryptois = new S3CryptoInputStream(obj.getObjectContent(), psk, expectedDigest,
+                cipherProviders, memoryBudget, reserved, true, knownContentLength(obj));
         obj.setObjectContent(cryptois);
 
         return obj;
@@ -477,54 +738,505 @@ public class S3CryptoClient extends AmazonS3Client implements S3Crypto {
         return s3Client.completeMultipartUpload(completeMultipartUploadRequest);
     }
 
-    private byte[] createPSK() {
+    /**
+     * Wraps the SDK method by removing the previously stored encrypted PSK
+     *
+     * @throws SdkClientException
+     * @throws AmazonServiceException
+     */
+    @Override
+    public void abortMultipartUpload(AbortMultipartUploadRequest abortMultipartUploadRequest)
+            throws SdkClientException {
+        if (!hasUserDefinedPSK) {
+            s3Client.deleteObject(abortMultipartUploadRequest.getBucketName(),
+                    abortMultipartUploadRequest.getKey() + ".key");
+        }
+        s3Client.abortMultipartUpload(abortMultipartUploadRequest);
+    }
+
+    /**
+     * Returns a publisher of the decrypted object content, using the encrypted
+     * PSK stored with the object. Content is fetched and decrypted one chunk at a
+     * time as the subscriber requests it, as one cipher stream in the same way as
+     * getObject.
+     *
+     * @return Publisher of decrypted chunks
+     */
+    public S3CryptoFlow.Publisher<ByteBuffer> getObjectPublisher(GetObjectRequest getObjectRequest) {
+        return new S3CryptoPublisher(this, getObjectRequest, null, getStreamingExecutor());
+    }
+
+    /**
+     * Returns a publisher of the object content decrypted with the user defined
+     * PSK. Content is fetched and decrypted one chunk at a time as the subscriber
+     * requests it, in the chunk format read by getObjectWithPSK.
+     *
+     * @return Publisher of decrypted chunks
+     */
+    public S3CryptoFlow.Publisher<ByteBuffer> getObjectPublisherWithPSK(GetObjectRequest getObjectRequest,
+            byte[] psk) {
+        return new S3CryptoPublisher(this, getObjectRequest, psk, getStreamingExecutor());
+    }
+
+    /**
+     * Returns a subscriber which encrypts the buffers it receives with a created
+     * PSK and uploads them as a multipart upload, initiated on subscription. The
+     * PSK is wrapped once and stored in the upload's metadata, so only a key which
+     * can wrap is needed. The parts form one cipher stream, read back by getObject
+     * and getObjectPublisher.
+     *
+     * @return S3CryptoUploadSubscriber
+     */
+    public S3CryptoUploadSubscriber putObjectSubscriber(
+            InitiateMultipartUploadRequest initiateMultipartUploadRequest) {
+        return new S3CryptoUploadSubscriber(this, initiateMultipartUploadRequest, null, getStreamingExecutor());
+    }
+
+    /**
+     * Returns a subscriber which encrypts the buffers it receives with the user
+     * defined PSK and uploads them as a multipart upload, initiated on
+     * subscription. Each part is encrypted on its own, in the chunk format read by
+     * getObjectWithPSK and getObjectPublisherWithPSK.
+     *
+     * @return S3CryptoUploadSubscriber
+     */
+    public S3CryptoUploadSubscriber putObjectSubscriberWithPSK(
+            InitiateMultipartUploadRequest initiateMultipartUploadRequest, byte[] psk) {
+        return new S3CryptoUploadSubscriber(this, initiateMultipartUploadRequest, psk, getStreamingExecutor());
+    }
+
+    /**
+     * Returns a writer which packs many entries into a single object, encrypted
+     * under one created PSK which is stored as object metadata.
+     *
+     * @return S3CryptoPackWriter
+     * @throws SdkClientException
+     */
+    public S3CryptoPackWriter newPackWriter(String bucketName, String key) throws SdkClientException {
+        byte[] psk = createPSK();
+        ObjectMetadata objectMetadata = new ObjectMetadata();
+        addEncryptedKey(objectMetadata, psk);
+        return new S3CryptoPackWriter(this, bucketName, key, psk, objectMetadata);
+    }
+
+    /**
+     * Returns a writer which packs many entries into a single object, encrypted
+     * with the user defined PSK.
+     *
+     * @return S3CryptoPackWriter
+     */
+    public S3CryptoPackWriter newPackWriterWithPSK(String bucketName, String key, byte[] psk) {
+        return new S3CryptoPackWriter(this, bucketName, key, psk, new ObjectMetadata());
+    }
+
+    /**
+     * Opens a pack written by newPackWriter, reading its index.
+     *
+     * @return S3CryptoPackReader
+     * @throws IOException
+     */
+    public S3CryptoPackReader openPackReader(String bucketName, String key) throws IOException {
+        ObjectMetadata metadata = s3Client.getObjectMetadata(bucketName, key);
+        Map<String, String> userMetadata = metadata.getUserMetadata();
+        try {
+            byte[] psk = decryptKey(userMetadata.get(ENCRYPTION_KEY_HEADER), userMetadata.get(KEY_WRAP_ALGORITHM_HEADER));
+            return new S3CryptoPackReader(this, bucketName, key, psk, metadata.getContentLength());
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Opens a pack written by newPackWriterWithPSK, reading its index.
+     *
+     * @return S3CryptoPackReader
+     * @throws IOException
+     */
+    public S3CryptoPackReader openPackReaderWithPSK(String bucketName, String key, byte[] psk) throws IOException {
+        ObjectMetadata metadata = s3Client.getObjectMetadata(bucketName, key);
+        return new S3CryptoPackReader(this, bucketName, key, psk, metadata.getContentLength());
+    }
+
+    AmazonS3 getS3Client() {
+        return s3Client;
+    }
+
+    CipherProviders getCipherProviders() {
+        return cipherProviders;
+    }
+
+    /**
+     * Gets an object and wraps its content in a decrypting stream. With a user
+     * defined PSK the content is read in the chunk format; when it is null the
+     * encrypted PSK stored with the object is used and the content is decrypted
+     * as one cipher stream, the same way as getObject.
+     */
+    S3CryptoInputStream getDecryptedObjectContent(GetObjectRequest getObjectRequest, byte[] psk)
+            throws IOException {
+        long reserved;
+        try {
+            reserved = reserve(S3CryptoInputStream.BUFFER_SIZE);
+        } catch (SdkClientException e) {
+            throw new IOException(e);
+        }
+
+        S3Object obj;
+        try {
+            obj = s3Client.getObject(getObjectRequest);
+        } catch (RuntimeException e) {
+            release(reserved);
+            throw e;
+        }
+        reserved = trimReservation(reserved, streamBufferSize(obj));
+        Map<String, String> userMetadata = obj.getObjectMetadata().getUserMetadata();
+
+        boolean chunked = psk != null;
+        if (!chunked) {
+            try {
+                psk = decryptKey(userMetadata.get(ENCRYPTION_KEY_HEADER), userMetadata.get(KEY_WRAP_ALGORITHM_HEADER));
+            } catch (Exception e) {
+                release(reserved);
+                obj.close();
+                throw new IOException(e);
+            }
+        }
+
+        return new S3CryptoInputStream(obj.getObjectContent(), psk,
+                expectedPlainTextDigest(getObjectRequest, userMetadata), cipherProviders, memoryBudget, reserved,
+                chunked, knownContentLength(obj));
+    }
+
+    /**
+     * Returns the stored plaintext digest to verify the content against, or null
+     * if there is none or only part of the object was requested.
+     */
+    private String expectedPlainTextDigest(GetObjectRequest getObjectRequest, Map<String, String> userMetadata) {
+        if (getObjectRequest.getRange() != null) {
+            return null;
+        }
+        return userMetadata.get(PLAINTEXT_DIGEST_HEADER);
+    }
+
+    private long reserve(long bytes) {
+        return memoryBudget == null ? 0 : memoryBudget.reserve(bytes);
+    }
+
+    private void release(long bytes) {
+        if (memoryBudget != null) {
+            memoryBudget.release(bytes);
+        }
+    }
+
+    /**
+     * Reserves further bytes for a caller already holding some, capped so that
+     * the total held never exceeds the limit, as the caller would otherwise wait
+     * on its own reservation.
+     *
+     * @return the further bytes reserved
+     */
+    private long reserveMore(long held, long bytes) {
+        if (memoryBudget == null) {
+            return 0;
+        }
+        return reserve(Math.min(bytes, memoryBudget.getLimit() - held));
+    }
+
+    /**
+     * Releases the part of a reservation beyond the bytes needed.
+     *
+     * @return the bytes still reserved
+     */
+    private long trimReservation(long reserved, long needed) {
+        long excess = reserved - Math.max(0, needed);
+        if (excess <= 0) {
+            return reserved;
+        }
+        release(excess);
+        return reserved - excess;
+    }
+
+    /**
+     * Returns the length of the content a GET will return, from the requested
+     * range or, when it is open ended or absent, a HEAD of the object. Used to
+     * reserve memory before the GET, so no connection is held while waiting.
+     */
+    private long objectLength(GetObjectRequest getObjectRequest) {
+        long[] range = getObjectRequest.getRange();
+        if (range != null && range[1] < Long.MAX_VALUE - 1) {
+            return range[1] - range[0] + 1;
+        }
+
+        GetObjectMetadataRequest getObjectMetadataRequest = new GetObjectMetadataRequest(
+                getObjectRequest.getBucketName(), getObjectRequest.getKey(), getObjectRequest.getVersionId())
+                        .withSSECustomerKey(getObjectRequest.getSSECustomerKey())
+                        .withPartNumber(getObjectRequest.getPartNumber())
+                        .withRequesterPays(getObjectRequest.isRequesterPays());
+        long length = s3Client.getObjectMetadata(getObjectMetadataRequest).getContentLength();
+        return range == null ? length : Math.max(0, length - range[0]);
+    }
+
+    /**
+     * Returns the bytes an S3CryptoInputStream buffers reading the object's
+     * content, which is less than a full chunk for small objects.
+     */
+    private long streamBufferSize(S3Object obj) {
+        long contentLength = knownContentLength(obj);
+        if (contentLength < 0) {
+            return S3CryptoInputStream.BUFFER_SIZE;
+        }
+        return 2 * Math.min(contentLength, S3CryptoInputStream.SIZE);
+    }
+
+    /**
+     * @return the Content-Length of the response, or -1 if it was not sent
+     */
+    private long knownContentLength(S3Object obj) {
+        ObjectMetadata metadata = obj.getObjectMetadata();
+        if (metadata.getRawMetadataValue(Headers.CONTENT_LENGTH) == null) {
+            return -1;
+        }
+        return metadata.getContentLength();
+    }
+
+    /**
+     * Returns the length of the content to be encrypted, or -1 if it is not
+     * known.
+     */
+    private long contentLength(PutObjectRequest putObjectRequest) {
+        if (putObjectRequest.getInputStream() == null && putObjectRequest.getFile() != null) {
+            return putObjectRequest.getFile().length();
+        }
+        ObjectMetadata metadata = putObjectRequest.getMetadata();
+        if (metadata != null && metadata.getRawMetadataValue(Headers.CONTENT_LENGTH) != null) {
+            return metadata.getContentLength();
+        }
+        return -1;
+    }
+
+    private long contentLength(UploadPartRequest uploadPartRequest) {
+        if (uploadPartRequest.getPartSize() > 0) {
+            return uploadPartRequest.getPartSize();
+        }
+        if (uploadPartRequest.getInputStream() == null && uploadPartRequest.getFile() != null) {
+            return uploadPartRequest.getFile().length();
+        }
+        return -1;
+    }
+
+    private void closeQuietly(S3Object obj) {
+        try {
+            obj.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Wraps a failure to encrypt or decrypt so that it is never swallowed, which
+     * would send or return the content unencrypted.
+     */
+    private SdkClientException cryptoFailure(String message, Exception e) {
+        if (e instanceof SdkClientException) {
+            return (SdkClientException) e;
+        }
+        return new SdkClientException(message, e);
+    }
+
+    /**
+     * Adds a wrapped copy of the PSK, and the algorithm used to wrap it, to the
+     * user metadata.
+     */
+    void addEncryptedKey(ObjectMetadata objectMetadata, byte[] psk) throws SdkClientException {
+        if (keyWrapper == null) {
+            throw new SdkClientException(String.format(NO_KEY_WRAPPER_MESSAGE, "wrapping"));
+        }
+        try {
+            objectMetadata.addUserMetadata(ENCRYPTION_KEY_HEADER, encryptKey(psk));
+            objectMetadata.addUserMetadata(KEY_WRAP_ALGORITHM_HEADER, keyWrapper.getAlgorithm());
+        } catch (Exception e) {
+            throw new SdkClientException(e);
+        }
+    }
+
+    byte[] createPSK() {
         byte[] b = new byte[16];
         new Random().nextBytes(b);
         return b;
     }
 
     private String encryptKey(byte[] psk) throws Exception {
-        Cipher cipher = Cipher.getInstance("RSA/ECB/OAEPWithSHA-1AndMGF1Padding");
-
-        cipher.init(Cipher.ENCRYPT_MODE, pubKey);
-        byte[] encodedKey = cipher.doFinal(psk);
+        byte[] encodedKey = keyWrapper.wrapKey(psk);
         return Hex.encodeHexString(encodedKey);
     }
 
-    private byte[] decryptKey(String encryptedKey) throws Exception {
-        if (privKey == null) {
-            throw new Exception(NO_PRIVATE_KEY_MESSAGE);
+    /**
+     * Unwraps a PSK with the key wrapper registered for the algorithm recorded
+     * with the object. Objects without a recorded algorithm use RSA-OAEP.
+     */
+    private byte[] decryptKey(String encryptedKey, String algorithm) throws Exception {
+        if (algorithm == null) {
+            algorithm = RSAKeyWrapper.ALGORITHM;
+        }
+
+        KeyWrapper unwrapper = keyWrappers.get(algorithm);
+        if (unwrapper == null) {
+            throw new Exception(String.format(NO_KEY_WRAPPER_MESSAGE, algorithm));
         }
 
         byte[] encodedKey = Hex.decodeHex(encryptedKey.toCharArray());
+        return unwrapper.unwrapKey(encodedKey);
+    }
 
-        Cipher cipher = Cipher.getInstance("RSA/ECB/OAEPWithSHA-1AndMGF1Padding");
+    /**
+     * Encrypts the request content, setting the length and Content-MD5 of the
+     * ciphertext and, if enabled, the plaintext digest on the request metadata.
+     * When chunked is true each chunk is encrypted on its own, the format read by
+     * getObjectWithPSK, otherwise the content is one cipher stream as read by
+     * getObject.
+     *
+     * @return the MD5 digest of the ciphertext
+     */
+    private byte[] encryptPutObjectContent(PutObjectRequest putObjectRequest, byte[] psk, boolean chunked,
+            InputStream content, CipherTextBuffer cipherText) throws Exception {
+        MessageDigest md5 = newDigest("MD5");
+        MessageDigest plainTextDigest = storePlainTextDigest ? newDigest("SHA-256") : null;
+        if (chunked) {
+            encryptChunkedContent(psk, content, cipherText, md5, plainTextDigest);
+        } else {
+            encryptObjectContent(newContentCipher(Cipher.ENCRYPT_MODE, psk), true, content, cipherText, md5,
+                    plainTextDigest);
+        }
+        byte[] md5Digest = md5.digest();
+
+        ObjectMetadata objectMetadata = putObjectRequest.getMetadata();
+        if (objectMetadata == null) {
+            objectMetadata = new ObjectMetadata();
+            putObjectRequest.setMetadata(objectMetadata);
+        }
+        objectMetadata.setContentLength(cipherText.size());
+        objectMetadata.setContentMD5(Base64.encodeBase64String(md5Digest));
+        if (plainTextDigest != null && cipherText.size() <= S3CryptoInputStream.SIZE) {
+            objectMetadata.addUserMetadata(PLAINTEXT_DIGEST_HEADER, Hex.encodeHexString(plainTextDigest.digest()));
+        }
 
-        cipher.init(Cipher.DECRYPT_MODE, privKey);
-        return cipher.doFinal(encodedKey);
+        putObjectRequest.setInputStream(cipherText.toInputStream());
+        return md5Digest;
     }
 
-    private byte[] encryptObjectContent(byte[] psk, InputStream content) throws Exception {
-        SecretKeySpec secretKey = new SecretKeySpec(psk, "AES");
-        Cipher cipher = Cipher.getInstance("AES/CFB/NoPadding");
-        IvParameterSpec ivParameterSpec = new IvParameterSpec(psk);
+    /**
+     * Encrypts the part content, setting the size and MD5 digest of the
+     * ciphertext on the request.
+     *
+     * @return the MD5 digest of the ciphertext
+     */
+    private byte[] encryptUploadPartContent(UploadPartRequest uploadPartRequest, Cipher cipher, boolean lastPart,
+            InputStream content, CipherTextBuffer cipherText) throws Exception {
+        MessageDigest md5 = newDigest("MD5");
+        encryptObjectContent(cipher, lastPart, content, cipherText, md5, null);
+        byte[] md5Digest = md5.digest();
+
+        uploadPartRequest.setPartSize(cipherText.size());
+        uploadPartRequest.setMd5Digest(Base64.encodeBase64String(md5Digest));
+        uploadPartRequest.setInputStream(cipherText.toInputStream());
+        return md5Digest;
+    }
 
-        cipher.init(Cipher.ENCRYPT_MODE, secretKey, ivParameterSpec);
+    /**
+     * Encrypts the content into the buffer in a single pass, with a cipher which
+     * may continue from earlier content, finishing it only if finish is true. The
+     * given digests, either of which may be null, are updated with the ciphertext
+     * and plaintext as it goes.
+     */
+    private void encryptObjectContent(Cipher cipher, boolean finish, InputStream content, CipherTextBuffer cipherText,
+            MessageDigest cipherTextDigest, MessageDigest plainTextDigest) throws Exception {
+        byte[] buffer = new byte[ENCRYPTION_BUFFER_SIZE];
+        int n;
+        while ((n = content.read(buffer)) != -1) {
+            if (plainTextDigest != null) {
+                plainTextDigest.update(buffer, 0, n);
+            }
+            cipherText.update(cipher, buffer, n, cipherTextDigest);
+        }
+        if (finish) {
+            cipherText.doFinal(cipher, cipherTextDigest);
+        }
+    }
+
+    /**
+     * Encrypts the content into the buffer in the chunk format read by
+     * S3CryptoInputStream, finishing the cipher at the end of each chunk and
+     * starting a new one for the next. Content of at most one chunk is the same
+     * as a single cipher stream.
+     */
+    private void encryptChunkedContent(byte[] psk, InputStream content, CipherTextBuffer cipherText,
+            MessageDigest cipherTextDigest, MessageDigest plainTextDigest) throws Exception {
+        byte[] buffer = new byte[ENCRYPTION_BUFFER_SIZE];
+        Cipher cipher = newContentCipher(Cipher.ENCRYPT_MODE, psk);
+        int chunkLength = 0;
+        int n;
+        while ((n = content.read(buffer, 0, Math.min(buffer.length, S3CryptoInputStream.SIZE - chunkLength))) != -1) {
+            if (plainTextDigest != null) {
+                plainTextDigest.update(buffer, 0, n);
+            }
+            cipherText.update(cipher, buffer, n, cipherTextDigest);
+            chunkLength += n;
+            if (chunkLength == S3CryptoInputStream.SIZE) {
+                cipherText.doFinal(cipher, cipherTextDigest);
+                cipher = newContentCipher(Cipher.ENCRYPT_MODE, psk);
+                chunkLength = 0;
+            }
+        }
+        cipherText.doFinal(cipher, cipherTextDigest);
+    }
 
-        return cipher.doFinal(IOUtils.toByteArray(content));
+    /**
+     * Returns the content cipher initialised with the PSK as key and IV.
+     */
+    Cipher newContentCipher(int mode, byte[] psk) throws GeneralSecurityException {
+        Cipher cipher = cipherProviders.getCipher(CipherProviders.CONTENT_TRANSFORMATION);
+        cipher.init(mode, new SecretKeySpec(psk, "AES"), new IvParameterSpec(psk));
+        return cipher;
     }
 
-    private byte[] decryptObjectContent(byte[] psk, InputStream content) throws Exception {
-        SecretKeySpec secretKey = new SecretKeySpec(psk, "AES");
-        Cipher cipher = Cipher.getInstance("AES/CFB/NoPadding");
-        IvParameterSpec ivParameterSpec = new IvParameterSpec(psk);
+    /**
+     * Checks a returned ETag against the MD5 of the uploaded ciphertext. ETags of
+     * KMS and customer key (SSE-C) encrypted objects are not an MD5 of the
+     * content and are skipped.
+     */
+    private void verifyETag(String eTag, String sseAlgorithm, String sseCustomerAlgorithm,
+            SSECustomerKey sseCustomerKey, byte[] md5) {
+        if (md5 == null || eTag == null || eTag.contains("-") || "aws:kms".equals(sseAlgorithm)
+                || sseCustomerAlgorithm != null || sseCustomerKey != null) {
+            return;
+        }
 
-        cipher.init(Cipher.DECRYPT_MODE, secretKey, ivParameterSpec);
+        String expected = Hex.encodeHexString(md5);
+        if (!expected.equalsIgnoreCase(eTag.replace("\"", ""))) {
+            throw new SdkClientException("ETag " + eTag + " does not match the MD5 of the uploaded ciphertext " + expected);
+        }
+    }
+
+    private MessageDigest newDigest(String algorithm) {
+        try {
+            return MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            throw new SdkClientException(e);
+        }
+    }
 
-        return cipher.doFinal(IOUtils.toByteArray(content));
+    /**
+     * Reads and decrypts the whole content, reading it into an array of exactly
+     * the content length when it is known.
+     */
+    private byte[] decryptObjectContent(byte[] psk, InputStream content, long contentLength) throws Exception {
+        byte[] cipherText = contentLength >= 0 ? IOUtils.toByteArray(content, contentLength)
+                : IOUtils.toByteArray(content);
+        return newContentCipher(Cipher.DECRYPT_MODE, psk).doFinal(cipherText);
     }
 
-    private String getEncryptedKey(UploadPartRequest uploadPartRequest) {
+    private byte[] getPSK(UploadPartRequest uploadPartRequest) throws Exception {
         GetObjectRequest getObjectRequest = new GetObjectRequest(uploadPartRequest.getBucketName(),
                 uploadPartRequest.getKey() + ".key");
         S3Object obj = s3Client.getObject(getObjectRequest);
@@ -537,11 +1249,130 @@ public class S3CryptoClient extends AmazonS3Client implements S3Crypto {
             e.printStackTrace();
         }
 
-        return content;
+        return decryptKey(content, obj.getObjectMetadata().getUserMetadata().get(KEY_WRAP_ALGORITHM_HEADER));
     }
 
     private void removeEncryptedKey(CompleteMultipartUploadRequest completeMultipartUploadRequest) {
         s3Client.deleteObject(completeMultipartUploadRequest.getBucketName(),
                 completeMultipartUploadRequest.getKey() + ".key");
     }
+
+    /**
+     * Holds the ciphertext of a put or part until it has been uploaded. When the
+     * content length is known the array is allocated once at that size, since
+     * the content cipher does not change the length; otherwise it grows as
+     * needed. Each array is reserved from the memory budget before it is
+     * allocated, so the budget counts what is actually on the heap.
+     */
+    private class CipherTextBuffer {
+
+        private byte[] buf;
+        private int count;
+        private long reserved;
+
+        /**
+         * @param length
+         *            the plaintext length, or -1 if it is not known
+         */
+        CipherTextBuffer(long length) {
+            if (length > Integer.MAX_VALUE) {
+                throw new SdkClientException("content of " + length + " bytes is too large to encrypt in memory");
+            }
+            int capacity = length < 0 ? ENCRYPTION_BUFFER_SIZE : (int) length;
+            reserved = reserve(capacity);
+            buf = new byte[capacity];
+        }
+
+        void update(Cipher cipher, byte[] input, int length, MessageDigest digest) throws GeneralSecurityException {
+            ensureCapacity(cipher.getOutputSize(length));
+            int n = cipher.update(input, 0, length, buf, count);
+            digest(digest, n);
+        }
+
+        void doFinal(Cipher cipher, MessageDigest digest) throws GeneralSecurityException {
+            ensureCapacity(cipher.getOutputSize(0));
+            int n = cipher.doFinal(buf, count);
+            digest(digest, n);
+        }
+
+        int size() {
+            return count;
+        }
+
+        InputStream toInputStream() {
+            return new ByteArrayInputStream(buf, 0, count);
+        }
+
+        void release() {
+            S3CryptoClient.this.release(reserved);
+            reserved = 0;
+            buf = null;
+        }
+
+        private void digest(MessageDigest digest, int n) {
+            if (digest != null) {
+                digest.update(buf, count, n);
+            }
+            count += n;
+        }
+
+        /**
+         * Grows the array to fit the given number of further bytes. The larger
+         * array is reserved before the smaller one is released, as both are live
+         * while copying.
+         */
+        private void ensureCapacity(int needed) {
+            if (needed <= buf.length - count) {
+                return;
+            }
+            long capacity = Math.min(Integer.MAX_VALUE, Math.max((long) count + needed, 2L * buf.length));
+            if (capacity < (long) count + needed) {
+                throw new SdkClientException("content is too large to encrypt in memory");
+            }
+            long grown = reserveMore(reserved, capacity);
+            try {
+                buf = Arrays.copyOf(buf, (int) capacity);
+            } catch (OutOfMemoryError e) {
+                S3CryptoClient.this.release(grown);
+                throw e;
+            }
+            S3CryptoClient.this.release(reserved);
+            reserved = grown;
+        }
+    }
+
+    /**
+     * Content which holds a reservation from the memory budget until it is
+     * closed or fully read.
+     */
+    private class ReservedInputStream extends ProxyInputStream {
+
+        private long reserved;
+
+        ReservedInputStream(InputStream in, long reserved) {
+            super(in);
+            this.reserved = reserved;
+        }
+
+        @Override
+        protected void afterRead(int n) {
+            if (n == -1) {
+                releaseReservation();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                releaseReservation();
+            }
+        }
+
+        private synchronized void releaseReservation() {
+            release(reserved);
+            reserved = 0;
+        }
+    }
 }
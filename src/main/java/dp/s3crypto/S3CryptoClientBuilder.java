@@ -0,0 +1,207 @@
+package dp.s3crypto;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import com.amazonaws.ClientConfiguration;
+import com.amazonaws.SdkClientException;
+import com.amazonaws.auth.AWSCredentialsProvider;
+import com.amazonaws.regions.DefaultAwsRegionProviderChain;
+import com.amazonaws.regions.Regions;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.AmazonS3ClientBuilder;
+
+/**
+ * Builds an S3CryptoClient, either creating the underlying S3 client from a
+ * ClientConfiguration, or sharing an existing one.
+ *
+ * Each concurrent transfer holds a connection for as long as it is streaming,
+ * so the pool should be at least as large as the number of threads doing crypto
+ * work; withMaxConnections sets this without needing a full
+ * ClientConfiguration. withConnectionPoolStats shows whether the pool is the
+ * bottleneck.
+ */
+public class S3CryptoClientBuilder {
+
+    private ClientConfiguration clientConfiguration;
+    private Integer maxConnections;
+    private AWSCredentialsProvider credentials;
+    private String region;
+    private AmazonS3 s3Client;
+    private KeyWrapper keyWrapper;
+    private List<KeyWrapper> additionalKeyWrappers = new ArrayList<KeyWrapper>();
+    private boolean storePlainTextDigest;
+    private Executor streamingExecutor;
+    private boolean collectConnectionPoolStats;
+    private CipherProviders cipherProviders;
+    private MemoryBudget memoryBudget;
+
+    private S3CryptoClientBuilder() {
+    }
+
+    public static S3CryptoClientBuilder standard() {
+        return new S3CryptoClientBuilder();
+    }
+
+    /**
+     * Sets the configuration of the S3 client created by the builder, which is
+     * copied so later changes do not affect it.
+     */
+    public S3CryptoClientBuilder withClientConfiguration(ClientConfiguration clientConfiguration) {
+        this.clientConfiguration = clientConfiguration;
+        return this;
+    }
+
+    /**
+     * Sets the size of the connection pool of the S3 client created by the
+     * builder, overriding any set by the ClientConfiguration.
+     */
+    public S3CryptoClientBuilder withMaxConnections(int maxConnections) {
+        this.maxConnections = maxConnections;
+        return this;
+    }
+
+    /**
+     * Collects connection pool usage of the S3 client created by the builder,
+     * available from S3CryptoClient.getConnectionPoolStats. This enables the
+     * SDK's request metrics, which are also logged by com.amazonaws.latency at
+     * INFO level.
+     */
+    public S3CryptoClientBuilder withConnectionPoolStats(boolean collectConnectionPoolStats) {
+        this.collectConnectionPoolStats = collectConnectionPoolStats;
+        return this;
+    }
+
+    public S3CryptoClientBuilder withCredentials(AWSCredentialsProvider credentials) {
+        this.credentials = credentials;
+        return this;
+    }
+
+    public S3CryptoClientBuilder withRegion(String region) {
+        this.region = region;
+        return this;
+    }
+
+    /**
+     * Shares an existing S3 client instead of creating one. Its connection pool is
+     * used as configured, so this cannot be combined with the client
+     * configuration, connection, credentials, region or pool stats settings.
+     */
+    public S3CryptoClientBuilder withS3Client(AmazonS3 s3Client) {
+        this.s3Client = s3Client;
+        return this;
+    }
+
+    /**
+     * Sets the key wrapper used to wrap created PSKs. Without one, the client
+     * only supports the WithPSK methods.
+     */
+    public S3CryptoClientBuilder withKeyWrapper(KeyWrapper keyWrapper) {
+        this.keyWrapper = keyWrapper;
+        return this;
+    }
+
+    /**
+     * Adds a key wrapper used only to unwrap the PSKs of objects written with its
+     * algorithm.
+     */
+    public S3CryptoClientBuilder withAdditionalKeyWrapper(KeyWrapper keyWrapper) {
+        this.additionalKeyWrappers.add(keyWrapper);
+        return this;
+    }
+
+    public S3CryptoClientBuilder withStorePlainTextDigest(boolean storePlainTextDigest) {
+        this.storePlainTextDigest = storePlainTextDigest;
+        return this;
+    }
+
+    public S3CryptoClientBuilder withStreamingExecutor(Executor streamingExecutor) {
+        this.streamingExecutor = streamingExecutor;
+        return this;
+    }
+
+    /**
+     * Sets the JCA providers used for content encryption and key wrapping, for
+     * example CipherProviders.benchmark() to run a startup self test and use the
+     * fastest provider which passes it.
+     */
+    public S3CryptoClientBuilder withCipherProviders(CipherProviders cipherProviders) {
+        this.cipherProviders = cipherProviders;
+        return this;
+    }
+
+    /**
+     * Limits the heap the client uses for buffering, see
+     * S3CryptoClient.setMemoryBudget.
+     */
+    public S3CryptoClientBuilder withMemoryBudget(MemoryBudget memoryBudget) {
+        this.memoryBudget = memoryBudget;
+        return this;
+    }
+
+    public S3CryptoClient build() {
+        AmazonS3 s3 = s3Client;
+        ConnectionPoolStats connectionPoolStats = null;
+
+        if (s3 == null) {
+            ClientConfiguration config = clientConfiguration == null ? new ClientConfiguration()
+                    : new ClientConfiguration(clientConfiguration);
+            if (maxConnections != null) {
+                config.setMaxConnections(maxConnections);
+            }
+            if (collectConnectionPoolStats) {
+                connectionPoolStats = new ConnectionPoolStats(config.getMaxConnections());
+            }
+            s3 = newS3Client(config, credentials, region, connectionPoolStats);
+        } else if (clientConfiguration != null || maxConnections != null || credentials != null || region != null
+                || collectConnectionPoolStats) {
+            throw new IllegalStateException(
+                    "client configuration, connections, credentials, region and pool stats only apply to an S3 client created by the builder, not one passed to withS3Client");
+        }
+
+        S3CryptoClient client = new S3CryptoClient(s3, s3Client == null, keyWrapper, connectionPoolStats);
+        for (KeyWrapper additional : additionalKeyWrappers) {
+            client.registerKeyWrapper(additional);
+        }
+        client.setStorePlainTextDigest(storePlainTextDigest);
+        client.setStreamingExecutor(streamingExecutor);
+        if (cipherProviders != null) {
+            client.setCipherProviders(cipherProviders);
+        }
+        client.setMemoryBudget(memoryBudget);
+        return client;
+    }
+
+    /**
+     * Creates an S3 client with the given configuration, reporting pool usage to
+     * the given stats if they are not null. Without a region or a default region,
+     * the client uses us-east-1 with global bucket access, as AmazonS3Client did
+     * by default.
+     */
+    static AmazonS3 newS3Client(ClientConfiguration clientConfiguration, AWSCredentialsProvider credentials,
+            String region, ConnectionPoolStats connectionPoolStats) {
+        AmazonS3ClientBuilder builder = AmazonS3ClientBuilder.standard().withClientConfiguration(clientConfiguration);
+        if (connectionPoolStats != null) {
+            builder.withMetricsCollector(connectionPoolStats);
+        }
+        if (credentials != null) {
+            builder.withCredentials(credentials);
+        }
+
+        if (region == null) {
+            try {
+                region = new DefaultAwsRegionProviderChain().getRegion();
+            } catch (SdkClientException e) {
+                region = null;
+            }
+        }
+        if (region == null) {
+            builder.withRegion(Regions.US_EAST_1).withForceGlobalBucketAccessEnabled(true);
+        } else {
+            builder.withRegion(region);
+        }
+
+        return builder.build();
+    }
+}
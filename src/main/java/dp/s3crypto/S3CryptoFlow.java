@@ -0,0 +1,30 @@
+package dp.s3crypto;
+
+/**
+ * Reactive streams interfaces used by the publisher and subscriber based
+ * transfer methods of S3CryptoClient. They mirror java.util.concurrent.Flow,
+ * which is not available on the Java versions this library targets, so they
+ * can be adapted to Flow or org.reactivestreams with a thin wrapper.
+ */
+public interface S3CryptoFlow {
+
+    interface Publisher<T> {
+        void subscribe(Subscriber<? super T> subscriber);
+    }
+
+    interface Subscriber<T> {
+        void onSubscribe(Subscription subscription);
+
+        void onNext(T item);
+
+        void onError(Throwable throwable);
+
+        void onComplete();
+    }
+
+    interface Subscription {
+        void request(long n);
+
+        void cancel();
+    }
+}
@@ -1,18 +1,31 @@
 package dp.s3crypto;
 
-import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
 
 import javax.crypto.Cipher;
 import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
 
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.io.IOUtils;
+
+import com.amazonaws.SdkClientException;
+
 public class S3CryptoInputStream extends InputStream implements Closeable {
 
-    private static final int SIZE = 5 * 1024 * 1024;
+    static final int SIZE = 5 * 1024 * 1024;
+
+    /**
+     * The most bytes buffered while reading, a ciphertext chunk and its
+     * plaintext, which are reserved from a memory budget. Objects smaller than a
+     * chunk need only twice their length.
+     */
+    static final long BUFFER_SIZE = 2L * SIZE;
 
     private InputStream parentInputStream;
     private byte[] currChunk;
@@ -20,116 +33,262 @@ public class S3CryptoInputStream extends InputStream implements Closeable {
     private byte[] psk;
     private int index;
 
+    private MessageDigest plainTextDigest;
+    private String expectedPlainTextDigest;
+    private CipherProviders cipherProviders = new CipherProviders();
+    private MemoryBudget memoryBudget;
+    private long reserved;
+    private boolean chunked = true;
+    private Cipher streamCipher;
+    private byte[] chunkBuffer;
+    private int chunkBufferSize = SIZE;
+
     public S3CryptoInputStream(InputStream is, byte[] psk) {
         this.parentInputStream = is;
         this.psk = psk;
     }
 
-    public int read(byte[] b) throws IOException {
-        if (this.lastChunk && currChunk.length == 0) {
-            return -1;
+    /**
+     * Creates a stream which, in addition to decrypting, hashes the plaintext as
+     * it is read and fails the final read if it does not match the given hex
+     * encoded SHA-256 digest.
+     */
+    public S3CryptoInputStream(InputStream is, byte[] psk, String expectedPlainTextDigest) {
+        this(is, psk);
+        if (expectedPlainTextDigest != null) {
+            try {
+                this.plainTextDigest = MessageDigest.getInstance("SHA-256");
+                this.expectedPlainTextDigest = expectedPlainTextDigest;
+            } catch (NoSuchAlgorithmException e) {
+                e.printStackTrace();
+            }
         }
+    }
 
-        if (currChunk == null || this.currChunk.length == 0) {
-            int n = 0;
-            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    /**
+     * Creates a stream which checks the plaintext digest, if not null, and
+     * decrypts with the content cipher of the given providers.
+     */
+    public S3CryptoInputStream(InputStream is, byte[] psk, String expectedPlainTextDigest,
+            CipherProviders cipherProviders) {
+        this(is, psk, expectedPlainTextDigest);
+        this.cipherProviders = cipherProviders;
+    }
 
-            while (n < SIZE) {
-                int p = this.parentInputStream.read();
-                if (p == -1) {
-                    break;
-                }
-                n++;
-                buffer.write(p);
-            }
+    /**
+     * Creates a stream which, in addition, reserves its buffers from the given
+     * memory budget, releasing them when closed or fully read.
+     *
+     * @throws SdkClientException
+     *             if the budget could not be reserved
+     */
+    public S3CryptoInputStream(InputStream is, byte[] psk, String expectedPlainTextDigest,
+            CipherProviders cipherProviders, MemoryBudget memoryBudget) throws SdkClientException {
+        this(is, psk, expectedPlainTextDigest, cipherProviders, memoryBudget,
+                memoryBudget == null ? 0 : memoryBudget.reserve(BUFFER_SIZE));
+    }
 
-            buffer.flush();
-            byte[] encryptedCurrentChunk = buffer.toByteArray();
+    /**
+     * Creates a stream which takes over bytes already reserved from the memory
+     * budget.
+     */
+    S3CryptoInputStream(InputStream is, byte[] psk, String expectedPlainTextDigest, CipherProviders cipherProviders,
+            MemoryBudget memoryBudget, long reserved) {
+        this(is, psk, expectedPlainTextDigest, cipherProviders);
+        this.memoryBudget = memoryBudget;
+        this.reserved = reserved;
+    }
 
-            if (n < SIZE) {
-                this.lastChunk = true;
-                encryptedCurrentChunk = Arrays.copyOfRange(encryptedCurrentChunk, 0, n);
-            }
+    /**
+     * Creates a stream which takes over bytes already reserved from the memory
+     * budget and, when chunked is false, decrypts the whole content as one cipher
+     * stream, as written by putObject, rather than each chunk on its own. The
+     * content length, or -1 if it is not known, sizes the chunk buffer.
+     */
+    S3CryptoInputStream(InputStream is, byte[] psk, String expectedPlainTextDigest, CipherProviders cipherProviders,
+            MemoryBudget memoryBudget, long reserved, boolean chunked, long contentLength) {
+        this(is, psk, expectedPlainTextDigest, cipherProviders, memoryBudget, reserved);
+        this.chunked = chunked;
+        if (contentLength >= 0) {
+            // one spare byte, so reaching the end never looks like a full chunk
+            this.chunkBufferSize = (int) Math.min(SIZE, contentLength + 1);
+        }
+    }
+
+    @Override
+    public int read(byte[] b) throws IOException {
+        return read(b, 0, b.length);
+    }
 
-            byte[] unencryptedChunk = decryptObjectContent(psk, encryptedCurrentChunk);
-            this.currChunk = unencryptedChunk;
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
         }
 
-        int n = 0;
-        if (this.currChunk.length >= b.length) {
-            b = Arrays.copyOf(this.currChunk, b.length);
-            n = b.length;
-            this.currChunk = Arrays.copyOfRange(this.currChunk, b.length, this.currChunk.length);
-        } else {
-            b = Arrays.copyOf(this.currChunk, this.currChunk.length);
-            n = this.currChunk.length;
-            this.currChunk = null;
+        if (!nextChunk()) {
+            return -1;
         }
 
+        int n = Math.min(len, this.currChunk.length - index);
+        System.arraycopy(this.currChunk, index, b, off, n);
+        index += n;
+
         return n;
     }
 
     @Override
-    public void close() throws IOException {
-        this.parentInputStream.close();
+    public int read() throws IOException {
+        if (!nextChunk()) {
+            return -1;
+        }
+
+        return this.currChunk[index++] & 0xff;
     }
 
-    private byte[] decryptObjectContent(byte[] psk, byte[] encrypted) throws IOException {
+    @Override
+    public void close() throws IOException {
         try {
-            SecretKeySpec secretKey = new SecretKeySpec(psk, "AES");
-            Cipher cipher = Cipher.getInstance("AES/CFB/NoPadding");
-            IvParameterSpec ivParameterSpec = new IvParameterSpec(psk);
-
-            cipher.init(Cipher.DECRYPT_MODE, secretKey, ivParameterSpec);
-
-            return cipher.doFinal(encrypted);
-        } catch (Exception e) {
-            System.out.println(e);
-            throw new IOException(e);
+            this.parentInputStream.close();
+        } finally {
+            release();
         }
     }
 
-    @Override
-    public int read() throws IOException {
-        if (this.lastChunk && this.currChunk == null) {
-            return -1;
+    /**
+     * Returns the unread plaintext of the current chunk, decrypting the next one
+     * if it has all been read. A whole chunk is handed over rather than copied.
+     *
+     * @return the plaintext, or null once the end of the object has been reached
+     */
+    byte[] readChunk() throws IOException {
+        if (!nextChunk()) {
+            return null;
         }
+        byte[] chunk = index == 0 ? currChunk : Arrays.copyOfRange(currChunk, index, currChunk.length);
+        currChunk = null;
+        index = 0;
+        return chunk;
+    }
 
-        if (currChunk == null || this.currChunk.length == 0) {
+    /**
+     * @return true once the last chunk has been read from the object, after
+     *         which only the plaintext already decrypted remains
+     */
+    boolean isLastChunk() {
+        return lastChunk;
+    }
+
+    /**
+     * Makes sure there is unread plaintext in the current chunk, reading and
+     * decrypting the next chunk from the parent stream if required.
+     *
+     * @return false once the end of the object has been reached
+     */
+    private boolean nextChunk() throws IOException {
+        while (currChunk == null || index == this.currChunk.length) {
+            if (this.lastChunk) {
+                release();
+                return false;
+            }
 
-            int n = 0;
-            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            int length = readEncryptedChunk();
+
+            if (length < SIZE) {
+                this.lastChunk = true;
+            }
+
+            // drop the previous chunk before decrypting, so only one is held
+            this.currChunk = null;
+            this.currChunk = chunked ? decryptObjectContent(psk, chunkBuffer, length)
+                    : decryptStreamContent(chunkBuffer, length);
+            this.index = 0;
 
-            while (n < SIZE) {
-                int b = this.parentInputStream.read();
-                if (b == -1) {
-                    break;
+            if (plainTextDigest != null) {
+                plainTextDigest.update(this.currChunk);
+                if (this.lastChunk) {
+                    verifyPlainTextDigest();
                 }
-                n++;
-                buffer.write(b);
             }
+        }
 
-            buffer.flush();
-            byte[] encryptedCurrentChunk = buffer.toByteArray();
+        return true;
+    }
 
-            if (n < SIZE) {
-                this.lastChunk = true;
-                encryptedCurrentChunk = Arrays.copyOfRange(encryptedCurrentChunk, 0, n);
+    /**
+     * Reads up to one chunk of ciphertext into the chunk buffer, which is reused
+     * for every chunk. It is sized from the content length, and only grows to a
+     * full chunk if that turns out to be too small.
+     *
+     * @return the bytes read, fewer than a chunk only at the end of the stream
+     */
+    private int readEncryptedChunk() throws IOException {
+        if (chunkBuffer == null) {
+            chunkBuffer = new byte[chunkBufferSize];
+        }
+        int length = 0;
+        while (true) {
+            length += IOUtils.read(parentInputStream, chunkBuffer, length, chunkBuffer.length - length);
+            if (length < chunkBuffer.length || length == SIZE) {
+                return length;
             }
+            chunkBuffer = Arrays.copyOf(chunkBuffer, SIZE);
+        }
+    }
 
-            byte[] unencryptedChunk = decryptObjectContent(psk, encryptedCurrentChunk);
-            this.currChunk = unencryptedChunk;
+    private synchronized void release() {
+        if (memoryBudget != null) {
+            memoryBudget.release(reserved);
+            reserved = 0;
         }
+    }
 
-        byte b = this.currChunk[index];
-        index++;
+    private void verifyPlainTextDigest() throws IOException {
+        String actual = Hex.encodeHexString(plainTextDigest.digest());
+        if (!actual.equalsIgnoreCase(expectedPlainTextDigest)) {
+            throw new IOException("plaintext digest mismatch: expected " + expectedPlainTextDigest + " but was "
+                    + actual);
+        }
+    }
 
-        if (index == SIZE || index == this.currChunk.length) {
-            this.currChunk = null;
-            index = 0;
+    private byte[] decryptObjectContent(byte[] psk, byte[] encrypted, int length) throws IOException {
+        try {
+            return newCipher(psk).doFinal(encrypted, 0, length);
+        } catch (Exception e) {
+            System.out.println(e);
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Continues decrypting the single cipher stream, finishing it on the last
+     * chunk. Full chunks are a whole number of cipher blocks, so nothing is held
+     * back between them.
+     */
+    private byte[] decryptStreamContent(byte[] encrypted, int length) throws IOException {
+        try {
+            if (streamCipher == null) {
+                streamCipher = newCipher(psk);
+            }
+            byte[] decrypted = lastChunk ? streamCipher.doFinal(encrypted, 0, length)
+                    : streamCipher.update(encrypted, 0, length);
+            return decrypted == null ? new byte[0] : decrypted;
+        } catch (Exception e) {
+            throw new IOException(e);
         }
+    }
+
+    private Cipher newCipher(byte[] psk) throws IOException {
+        try {
+            SecretKeySpec secretKey = new SecretKeySpec(psk, "AES");
+            Cipher cipher = cipherProviders.getCipher(CipherProviders.CONTENT_TRANSFORMATION);
+            IvParameterSpec ivParameterSpec = new IvParameterSpec(psk);
 
-        return b;
+            cipher.init(Cipher.DECRYPT_MODE, secretKey, ivParameterSpec);
+            return cipher;
+        } catch (Exception e) {
+            throw new IOException(e);
+        }
     }
 
 }
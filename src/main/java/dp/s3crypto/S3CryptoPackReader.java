@@ -0,0 +1,176 @@
+package dp.s3crypto;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.apache.commons.io.IOUtils;
+
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.S3Object;
+
+/**
+ * Reads single entries from a pack written by S3CryptoPackWriter. The index is
+ * read once when the reader is opened, after which each entry costs one ranged
+ * GET.
+ *
+ * Content is encrypted with AES/CFB, where each block is decrypted using only
+ * the previous block of ciphertext, so a range is fetched from the start of the
+ * cipher block preceding it (or the start of its chunk) rather than from the
+ * start of the chunk.
+ */
+public class S3CryptoPackReader {
+
+    private static final int BLOCK_SIZE = 16;
+    private static final int TAIL_SIZE = 64 * 1024;
+
+    private final S3CryptoClient client;
+    private final String bucketName;
+    private final String key;
+    private final byte[] psk;
+    private final long length;
+    private Map<String, long[]> entries = new LinkedHashMap<String, long[]>();
+
+    S3CryptoPackReader(S3CryptoClient client, String bucketName, String key, byte[] psk, long length)
+            throws IOException {
+        this.client = client;
+        this.bucketName = bucketName;
+        this.key = key;
+        this.psk = psk;
+        this.length = length;
+
+        readIndex();
+    }
+
+    public Set<String> getEntryNames() {
+        return Collections.unmodifiableSet(entries.keySet());
+    }
+
+    /**
+     * @return the plaintext length of the entry, or -1 if there is no such entry
+     */
+    public long getEntryLength(String name) {
+        long[] entry = entries.get(name);
+        return entry == null ? -1 : entry[1];
+    }
+
+    /**
+     * Fetches and decrypts a single entry.
+     *
+     * @return the entry content, or null if there is no such entry
+     */
+    public byte[] getEntry(String name) throws IOException {
+        long[] entry = entries.get(name);
+        if (entry == null) {
+            return null;
+        }
+        return readRange(entry[0], (int) entry[1]);
+    }
+
+    private void readIndex() throws IOException {
+        if (length < S3CryptoPackWriter.TRAILER_SIZE) {
+            throw new IOException(key + " is not a pack");
+        }
+
+        long tailOffset = Math.max(0, length - TAIL_SIZE);
+        byte[] tail = readRange(tailOffset, (int) (length - tailOffset));
+
+        ByteBuffer trailer = ByteBuffer.wrap(tail, tail.length - S3CryptoPackWriter.TRAILER_SIZE,
+                S3CryptoPackWriter.TRAILER_SIZE);
+        long indexOffset = trailer.getLong();
+        if (trailer.getInt() != S3CryptoPackWriter.TRAILER_MAGIC || indexOffset < 0
+                || indexOffset > length - S3CryptoPackWriter.TRAILER_SIZE) {
+            throw new IOException(key + " is not a pack");
+        }
+
+        byte[] index;
+        if (indexOffset >= tailOffset) {
+            index = Arrays.copyOfRange(tail, (int) (indexOffset - tailOffset), tail.length);
+        } else {
+            index = readRange(indexOffset, (int) (length - indexOffset));
+        }
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(index));
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            String name = in.readUTF();
+            long offset = in.readLong();
+            long entryLength = in.readLong();
+            entries.put(name, new long[] { offset, entryLength });
+        }
+    }
+
+    /**
+     * Fetches the ciphertext needed to decrypt the given plaintext range with a
+     * single ranged GET, and decrypts it chunk by chunk.
+     */
+    private byte[] readRange(long offset, int len) throws IOException {
+        if (len == 0) {
+            return new byte[0];
+        }
+
+        int chunkSize = S3CryptoInputStream.SIZE;
+        long blockStart = offset - (offset % chunkSize) % BLOCK_SIZE;
+        boolean chunkStart = blockStart % chunkSize == 0;
+        long fetchStart = chunkStart ? blockStart : blockStart - BLOCK_SIZE;
+        long end = offset + len;
+
+        GetObjectRequest getObjectRequest = new GetObjectRequest(bucketName, key);
+        getObjectRequest.setRange(fetchStart, end - 1);
+        S3Object obj = client.getS3Client().getObject(getObjectRequest);
+        byte[] cipherText;
+        try {
+            cipherText = IOUtils.toByteArray(obj.getObjectContent());
+        } finally {
+            obj.close();
+        }
+        if (cipherText.length != end - fetchStart) {
+            throw new IOException("short read of " + key + " at offset " + fetchStart);
+        }
+
+        byte[] iv = chunkStart ? psk : Arrays.copyOf(cipherText, BLOCK_SIZE);
+        int pos = (int) (blockStart - fetchStart);
+        long absolute = blockStart;
+        ByteArrayOutputStream plainText = new ByteArrayOutputStream((int) (end - blockStart));
+
+        while (absolute < end) {
+            long chunkEnd = Math.min((absolute / chunkSize + 1) * chunkSize, end);
+            int n = (int) (chunkEnd - absolute);
+            byte[] decrypted = decrypt(iv, cipherText, pos, n);
+            plainText.write(decrypted, 0, decrypted.length);
+
+            pos += n;
+            absolute = chunkEnd;
+            iv = psk;
+        }
+
+        byte[] block = plainText.toByteArray();
+        int skip = (int) (offset - blockStart);
+        return Arrays.copyOfRange(block, skip, skip + len);
+    }
+
+    private byte[] decrypt(byte[] iv, byte[] cipherText, int offset, int len) throws IOException {
+        try {
+            SecretKeySpec secretKey = new SecretKeySpec(psk, "AES");
+            Cipher cipher = client.getCipherProviders().getCipher(CipherProviders.CONTENT_TRANSFORMATION);
+            IvParameterSpec ivParameterSpec = new IvParameterSpec(iv);
+
+            cipher.init(Cipher.DECRYPT_MODE, secretKey, ivParameterSpec);
+
+            return cipher.doFinal(cipherText, offset, len);
+        } catch (Exception e) {
+            throw new IOException(e);
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package dp.s3crypto;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PartETag;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.UploadPartRequest;
+
+/**
+ * Writes many small entries into a single encrypted pack object under one PSK.
+ * Entries are appended one after another, followed by an index of entry names,
+ * offsets and lengths, and a fixed size trailer locating the index. The whole
+ * pack is encrypted in the same chunk format read by S3CryptoInputStream, so
+ * single entries can be read with ranged GETs by S3CryptoPackReader.
+ *
+ * A pack which fits in one chunk is uploaded with a single PUT when the writer
+ * is closed, otherwise each full chunk is uploaded as a part of a multipart
+ * upload as soon as it is filled.
+ */
+public class S3CryptoPackWriter implements Closeable {
+
+    static final int TRAILER_MAGIC = 0x53335041;
+    static final int TRAILER_SIZE = 12;
+
+    private final S3CryptoClient client;
+    private final String bucketName;
+    private final String key;
+    private final byte[] psk;
+    private final ObjectMetadata objectMetadata;
+
+    private byte[] part = new byte[S3CryptoInputStream.SIZE];
+    private int partLength;
+    private long offset;
+    private String uploadId;
+    private List<PartETag> partETags = new ArrayList<PartETag>();
+    private Map<String, long[]> entries = new LinkedHashMap<String, long[]>();
+    private boolean closed;
+
+    S3CryptoPackWriter(S3CryptoClient client, String bucketName, String key, byte[] psk,
+            ObjectMetadata objectMetadata) {
+        this.client = client;
+        this.bucketName = bucketName;
+        this.key = key;
+        this.psk = psk;
+        this.objectMetadata = objectMetadata;
+    }
+
+    public void addEntry(String name, byte[] content) throws IOException {
+        addEntry(name, new ByteArrayInputStream(content));
+    }
+
+    /**
+     * Appends the content as a new entry, reading the stream to its end.
+     */
+    public void addEntry(String name, InputStream content) throws IOException {
+        if (closed) {
+            throw new IOException("pack " + key + " has already been closed");
+        }
+        if (entries.containsKey(name)) {
+            throw new IllegalArgumentException("pack " + key + " already contains an entry named " + name);
+        }
+
+        long start = offset;
+        try {
+            append(content);
+        } catch (RuntimeException e) {
+            abort();
+            throw new IOException(e);
+        }
+
+        entries.put(name, new long[] { start, offset - start });
+    }
+
+    public int getEntryCount() {
+        return entries.size();
+    }
+
+    /**
+     * Writes the index and completes the upload of the pack.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+
+        try {
+            long indexOffset = offset;
+            ByteArrayOutputStream index = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(index);
+            out.writeInt(entries.size());
+            for (Map.Entry<String, long[]> entry : entries.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeLong(entry.getValue()[0]);
+                out.writeLong(entry.getValue()[1]);
+            }
+            out.writeLong(indexOffset);
+            out.writeInt(TRAILER_MAGIC);
+            out.flush();
+
+            closed = true;
+            append(new ByteArrayInputStream(index.toByteArray()));
+
+            if (uploadId == null) {
+                PutObjectRequest putObjectRequest = new PutObjectRequest(bucketName, key,
+                        new ByteArrayInputStream(Arrays.copyOf(part, partLength)), objectMetadata);
+                client.putObjectWithPSK(putObjectRequest, psk);
+            } else {
+                if (partLength > 0) {
+                    uploadPart();
+                }
+                client.getS3Client().completeMultipartUpload(
+                        new CompleteMultipartUploadRequest(bucketName, key, uploadId, partETags));
+            }
+        } catch (RuntimeException e) {
+            abort();
+            throw new IOException(e);
+        } finally {
+            part = null;
+        }
+    }
+
+    /**
+     * Discards the pack, aborting its multipart upload if one has been started.
+     */
+    public void abort() {
+        closed = true;
+        part = null;
+        if (uploadId != null) {
+            client.getS3Client().abortMultipartUpload(new AbortMultipartUploadRequest(bucketName, key, uploadId));
+            uploadId = null;
+        }
+    }
+
+    private void append(InputStream content) throws IOException {
+        int n;
+        while ((n = content.read(part, partLength, part.length - partLength)) != -1) {
+            partLength += n;
+            offset += n;
+            if (partLength == part.length) {
+                uploadPart();
+            }
+        }
+    }
+
+    private void uploadPart() {
+        if (uploadId == null) {
+            uploadId = client.getS3Client()
+                    .initiateMultipartUpload(new InitiateMultipartUploadRequest(bucketName, key, objectMetadata))
+                    .getUploadId();
+        }
+
+        UploadPartRequest uploadPartRequest = new UploadPartRequest().withBucketName(bucketName).withKey(key)
+                .withUploadId(uploadId).withPartNumber(partETags.size() + 1)
+                .withInputStream(new ByteArrayInputStream(Arrays.copyOf(part, partLength))).withPartSize(partLength);
+
+        partETags.add(client.uploadPartWithPSK(uploadPartRequest, psk).getPartETag());
+        partLength = 0;
+    }
+}
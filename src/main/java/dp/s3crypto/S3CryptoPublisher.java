@@ -0,0 +1,169 @@
+package dp.s3crypto;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.io.IOUtils;
+
+import com.amazonaws.services.s3.model.GetObjectRequest;
+
+/**
+ * Publishes the decrypted content of an object as one ByteBuffer per encrypted
+ * chunk. Nothing is read from S3 until the subscriber signals demand, and no
+ * more than one chunk is read ahead of it. Each subscriber gets its own GET,
+ * which along with decryption runs on the executor rather than the thread
+ * calling request.
+ */
+class S3CryptoPublisher implements S3CryptoFlow.Publisher<ByteBuffer> {
+
+    private final S3CryptoClient client;
+    private final GetObjectRequest getObjectRequest;
+    private final byte[] psk;
+    private final Executor executor;
+
+    /**
+     * @param psk
+     *            the user defined PSK, or null to decrypt the PSK stored with the
+     *            object
+     * @param executor
+     *            runs the blocking reads, so that request never does I/O on the
+     *            calling thread
+     */
+    S3CryptoPublisher(S3CryptoClient client, GetObjectRequest getObjectRequest, byte[] psk, Executor executor) {
+        this.client = client;
+        this.getObjectRequest = getObjectRequest;
+        this.psk = psk;
+        this.executor = executor;
+    }
+
+    @Override
+    public void subscribe(S3CryptoFlow.Subscriber<? super ByteBuffer> subscriber) {
+        if (subscriber == null) {
+            throw new NullPointerException("subscriber");
+        }
+        ChunkSubscription subscription = new ChunkSubscription(subscriber);
+        subscriber.onSubscribe(subscription);
+    }
+
+    private class ChunkSubscription implements S3CryptoFlow.Subscription, Runnable {
+
+        private final S3CryptoFlow.Subscriber<? super ByteBuffer> subscriber;
+        private final AtomicLong demand = new AtomicLong();
+        private final AtomicInteger wip = new AtomicInteger();
+        private volatile boolean cancelled;
+        private volatile Throwable invalidRequest;
+        private boolean done;
+        private boolean endOfContent;
+        private S3CryptoInputStream content;
+
+        ChunkSubscription(S3CryptoFlow.Subscriber<? super ByteBuffer> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                invalidRequest = new IllegalArgumentException("request must be positive but was " + n);
+            } else {
+                long current;
+                long next;
+                do {
+                    current = demand.get();
+                    next = current + n < 0 ? Long.MAX_VALUE : current + n;
+                } while (!demand.compareAndSet(current, next));
+            }
+            schedule();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            schedule();
+        }
+
+        private void schedule() {
+            if (wip.getAndIncrement() != 0) {
+                return;
+            }
+            executor.execute(this);
+        }
+
+        /**
+         * Drains outstanding demand. Only one thread runs this at a time, and
+         * signals raised while it is running, including re-entrant requests from
+         * onNext, are picked up before it returns.
+         */
+        @Override
+        public void run() {
+            int missed = 1;
+            while (true) {
+                drain();
+                missed = wip.addAndGet(-missed);
+                if (missed == 0) {
+                    return;
+                }
+            }
+        }
+
+        private void drain() {
+            while (!done) {
+                if (cancelled) {
+                    finish();
+                    return;
+                }
+                if (invalidRequest != null) {
+                    finish();
+                    subscriber.onError(invalidRequest);
+                    return;
+                }
+                if (demand.get() == 0) {
+                    return;
+                }
+
+                ByteBuffer chunk;
+                try {
+                    chunk = readChunk();
+                } catch (Exception e) {
+                    finish();
+                    subscriber.onError(e);
+                    return;
+                }
+
+                if (chunk == null) {
+                    finish();
+                    subscriber.onComplete();
+                    return;
+                }
+
+                demand.decrementAndGet();
+                subscriber.onNext(chunk);
+
+                if (endOfContent && !cancelled) {
+                    finish();
+                    subscriber.onComplete();
+                }
+            }
+        }
+
+        private ByteBuffer readChunk() throws IOException {
+            if (content == null) {
+                content = client.getDecryptedObjectContent(getObjectRequest, psk);
+            }
+
+            byte[] chunk = content.readChunk();
+            if (chunk == null) {
+                return null;
+            }
+            endOfContent = content.isLastChunk();
+            return ByteBuffer.wrap(chunk);
+        }
+
+        private void finish() {
+            done = true;
+            IOUtils.closeQuietly(content);
+        }
+    }
+}
@@ -0,0 +1,361 @@
+package dp.s3crypto;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.crypto.Cipher;
+
+import com.amazonaws.SdkClientException;
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadResult;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PartETag;
+import com.amazonaws.services.s3.model.UploadPartRequest;
+
+/**
+ * Encrypts and uploads the buffers it is subscribed to as a multipart upload.
+ * Plaintext is collected into parts of the chunk size read by
+ * S3CryptoInputStream.
+ *
+ * With a user defined PSK each part is encrypted on its own, the chunk format
+ * read by getObjectWithPSK and getObjectPublisherWithPSK. Without one, the parts
+ * are encrypted as one cipher stream, the format written by putObject and read
+ * by getObject and getObjectPublisher.
+ *
+ * Initiating, uploading parts, completing and aborting run one at a time on the
+ * client's streaming executor, never on the thread signalling the subscriber.
+ * The next buffer is requested only once the parts it filled are uploaded, so
+ * memory is bounded by one buffer plus the parts it fills.
+ *
+ * Without a user defined PSK, the subscriber creates one and stores it wrapped
+ * in the metadata of the upload, so the client only needs a key which can wrap.
+ *
+ * The result of the upload is available through the Future interface once the
+ * publisher completes.
+ */
+public class S3CryptoUploadSubscriber
+        implements S3CryptoFlow.Subscriber<ByteBuffer>, Future<CompleteMultipartUploadResult> {
+
+    private final S3CryptoClient client;
+    private final InitiateMultipartUploadRequest initiateMultipartUploadRequest;
+    private final SerialExecutor executor;
+    private final CountDownLatch finished = new CountDownLatch(1);
+
+    // only used on the thread signalling the subscriber
+    private byte[] part;
+    private int partLength;
+
+    // only used by tasks on the executor
+    private byte[] psk;
+    private Cipher cipher;
+    private String uploadId;
+    private List<PartETag> partETags = new ArrayList<PartETag>();
+
+    private volatile S3CryptoFlow.Subscription subscription;
+    private volatile boolean done;
+    private volatile boolean cancelled;
+    private volatile CompleteMultipartUploadResult result;
+    private volatile Throwable error;
+
+    /**
+     * @param psk
+     *            the user defined PSK, or null to use a PSK created and encrypted
+     *            by the client
+     * @param executor
+     *            runs the S3 calls
+     */
+    S3CryptoUploadSubscriber(S3CryptoClient client, InitiateMultipartUploadRequest initiateMultipartUploadRequest,
+            byte[] psk, Executor executor) {
+        this.client = client;
+        this.initiateMultipartUploadRequest = initiateMultipartUploadRequest;
+        this.psk = psk;
+        this.executor = new SerialExecutor(executor);
+    }
+
+    @Override
+    public void onSubscribe(final S3CryptoFlow.Subscription subscription) {
+        if (this.subscription != null || isDone()) {
+            subscription.cancel();
+            return;
+        }
+        this.subscription = subscription;
+
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                initiate();
+                subscription.request(1);
+            }
+        });
+    }
+
+    @Override
+    public void onNext(ByteBuffer item) {
+        if (isDone()) {
+            return;
+        }
+
+        boolean uploading = false;
+        while (item.hasRemaining()) {
+            if (part == null) {
+                part = new byte[S3CryptoInputStream.SIZE];
+            }
+            int n = Math.min(item.remaining(), part.length - partLength);
+            item.get(part, partLength, n);
+            partLength += n;
+
+            if (partLength == part.length) {
+                final byte[] full = part;
+                part = null;
+                partLength = 0;
+                execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        uploadPart(full, full.length, false);
+                    }
+                });
+                uploading = true;
+            }
+        }
+
+        if (uploading) {
+            execute(new Runnable() {
+                @Override
+                public void run() {
+                    subscription.request(1);
+                }
+            });
+        } else {
+            subscription.request(1);
+        }
+    }
+
+    @Override
+    public void onError(final Throwable throwable) {
+        part = null;
+        if (isDone()) {
+            return;
+        }
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (!done) {
+                    abort(throwable);
+                }
+            }
+        });
+    }
+
+    @Override
+    public void onComplete() {
+        final byte[] last = part;
+        final int lastLength = partLength;
+        part = null;
+        if (isDone()) {
+            return;
+        }
+
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                if (lastLength > 0 || partETags.isEmpty()) {
+                    uploadPart(last == null ? new byte[0] : last, lastLength, true);
+                }
+
+                CompleteMultipartUploadRequest completeMultipartUploadRequest = new CompleteMultipartUploadRequest(
+                        initiateMultipartUploadRequest.getBucketName(), initiateMultipartUploadRequest.getKey(),
+                        uploadId, partETags);
+                result = client.getS3Client().completeMultipartUpload(completeMultipartUploadRequest);
+                done = true;
+                finished.countDown();
+            }
+        });
+    }
+
+    /**
+     * Cancels the subscription and aborts the multipart upload if it has not yet
+     * finished. The abort runs on the executor after any S3 call in progress, and
+     * get returns once it has.
+     */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        if (isDone()) {
+            return false;
+        }
+        cancelled = true;
+        S3CryptoFlow.Subscription s = subscription;
+        if (s != null) {
+            s.cancel();
+        }
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (!done) {
+                    abort(new CancellationException());
+                }
+            }
+        });
+        return true;
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    @Override
+    public boolean isDone() {
+        return done || cancelled;
+    }
+
+    @Override
+    public CompleteMultipartUploadResult get() throws InterruptedException, ExecutionException {
+        finished.await();
+        return getResult();
+    }
+
+    @Override
+    public CompleteMultipartUploadResult get(long timeout, TimeUnit unit)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        if (!finished.await(timeout, unit)) {
+            throw new TimeoutException();
+        }
+        return getResult();
+    }
+
+    private CompleteMultipartUploadResult getResult() throws ExecutionException {
+        if (error instanceof CancellationException) {
+            throw (CancellationException) error;
+        }
+        if (error != null) {
+            throw new ExecutionException(error);
+        }
+        return result;
+    }
+
+    /**
+     * Runs a step of the upload on the executor, unless the upload has already
+     * finished, failed or been cancelled. A step which fails cancels the
+     * subscription and aborts the upload.
+     */
+    private void execute(final Runnable step) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (isDone()) {
+                    return;
+                }
+                try {
+                    step.run();
+                } catch (RuntimeException e) {
+                    subscription.cancel();
+                    abort(e);
+                }
+            }
+        });
+    }
+
+    private void initiate() {
+        if (psk == null) {
+            psk = client.createPSK();
+            ObjectMetadata objectMetadata = initiateMultipartUploadRequest.getObjectMetadata();
+            if (objectMetadata == null) {
+                objectMetadata = new ObjectMetadata();
+                initiateMultipartUploadRequest.setObjectMetadata(objectMetadata);
+            }
+            client.addEncryptedKey(objectMetadata, psk);
+            try {
+                cipher = client.newContentCipher(Cipher.ENCRYPT_MODE, psk);
+            } catch (GeneralSecurityException e) {
+                throw new SdkClientException("could not encrypt " + initiateMultipartUploadRequest.getKey(), e);
+            }
+        }
+        uploadId = client.getS3Client().initiateMultipartUpload(initiateMultipartUploadRequest).getUploadId();
+    }
+
+    /**
+     * Uploads a part. Full parts are a whole number of cipher blocks, so when the
+     * parts share one cipher stream it is complete even if the last part is full
+     * and never uploaded as lastPart.
+     */
+    private void uploadPart(byte[] data, int length, boolean lastPart) {
+        UploadPartRequest uploadPartRequest = new UploadPartRequest()
+                .withBucketName(initiateMultipartUploadRequest.getBucketName())
+                .withKey(initiateMultipartUploadRequest.getKey()).withUploadId(uploadId)
+                .withPartNumber(partETags.size() + 1)
+                .withInputStream(new ByteArrayInputStream(data, 0, length)).withPartSize(length);
+
+        if (cipher == null) {
+            partETags.add(client.uploadPartWithPSK(uploadPartRequest, psk).getPartETag());
+        } else {
+            partETags.add(client.uploadPartWithCipher(uploadPartRequest, cipher, lastPart).getPartETag());
+        }
+    }
+
+    private void abort(Throwable cause) {
+        if (uploadId != null) {
+            try {
+                client.getS3Client().abortMultipartUpload(new AbortMultipartUploadRequest(
+                        initiateMultipartUploadRequest.getBucketName(), initiateMultipartUploadRequest.getKey(),
+                        uploadId));
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+        error = cause;
+        done = true;
+        finished.countDown();
+    }
+
+    /**
+     * Runs tasks one at a time, in the order submitted, on an underlying
+     * executor.
+     */
+    private static class SerialExecutor implements Executor {
+
+        private final ArrayDeque<Runnable> tasks = new ArrayDeque<Runnable>();
+        private final Executor executor;
+        private Runnable active;
+
+        SerialExecutor(Executor executor) {
+            this.executor = executor;
+        }
+
+        @Override
+        public synchronized void execute(final Runnable r) {
+            tasks.add(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        r.run();
+                    } finally {
+                        scheduleNext();
+                    }
+                }
+            });
+            if (active == null) {
+                scheduleNext();
+            }
+        }
+
+        private synchronized void scheduleNext() {
+            active = tasks.poll();
+            if (active != null) {
+                executor.execute(active);
+            }
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package dp.s3crypto.loadtest;
+
+import java.nio.ByteBuffer;
+
+import dp.s3crypto.S3CryptoFlow;
+
+/**
+ * Publishes part of an array as buffers of up to a megabyte, on whichever thread
+ * requests them.
+ */
+public class ArrayPublisher implements S3CryptoFlow.Publisher<ByteBuffer> {
+
+    private final byte[] content;
+    private final int offset;
+    private final int length;
+
+    public ArrayPublisher(byte[] content) {
+        this(content, 0, content.length);
+    }
+
+    public ArrayPublisher(byte[] content, int offset, int length) {
+        this.content = content;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    @Override
+    public void subscribe(final S3CryptoFlow.Subscriber<? super ByteBuffer> subscriber) {
+        subscriber.onSubscribe(new S3CryptoFlow.Subscription() {
+            private int position = offset;
+            private long demand;
+            private boolean emitting;
+            private boolean done;
+
+            @Override
+            public synchronized void request(long n) {
+                demand += n;
+                if (emitting) {
+                    return;
+                }
+                emitting = true;
+                while (demand > 0 && !done) {
+                    if (position == offset + length) {
+                        done = true;
+                        subscriber.onComplete();
+                        break;
+                    }
+                    int size = Math.min(1024 * 1024, offset + length - position);
+                    ByteBuffer buffer = ByteBuffer.wrap(content, position, size).slice();
+                    position += size;
+                    demand--;
+                    subscriber.onNext(buffer);
+                }
+                emitting = false;
+            }
+
+            @Override
+            public synchronized void cancel() {
+                done = true;
+            }
+        });
+    }
+}
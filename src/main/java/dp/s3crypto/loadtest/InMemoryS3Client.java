@@ -0,0 +1,316 @@
+package dp.s3crypto.loadtest;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.IOUtils;
+
+import com.amazonaws.SdkClientException;
+import com.amazonaws.services.s3.AmazonS3Client;
+import com.amazonaws.services.s3.Headers;
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadResult;
+import com.amazonaws.services.s3.model.DeleteObjectRequest;
+import com.amazonaws.services.s3.model.GetObjectMetadataRequest;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadResult;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PartETag;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.PutObjectResult;
+import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.model.UploadPartRequest;
+import com.amazonaws.services.s3.model.UploadPartResult;
+
+/**
+ * An in-memory stand-in for S3 supporting the calls made by S3CryptoClient:
+ * puts, ranged gets, object metadata, deletes and multipart uploads. Each call
+ * is delayed by a fixed latency plus the time to transfer its payload at the
+ * configured bandwidth, so client changes can be load tested without AWS.
+ *
+ * Bandwidth is simulated per request, as if each request had its own
+ * connection.
+ */
+public class InMemoryS3Client extends AmazonS3Client {
+
+    private final long latencyNanos;
+    private final long bytesPerSecond;
+
+    private ConcurrentMap<String, StoredObject> objects = new ConcurrentHashMap<String, StoredObject>();
+    private ConcurrentMap<String, Upload> uploads = new ConcurrentHashMap<String, Upload>();
+
+    /**
+     * @param latencyMillis
+     *            added to every request
+     * @param bytesPerSecond
+     *            transfer rate of request and response bodies, or 0 for
+     *            unlimited
+     */
+    public InMemoryS3Client(long latencyMillis, long bytesPerSecond) {
+        this.latencyNanos = TimeUnit.MILLISECONDS.toNanos(latencyMillis);
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    public InMemoryS3Client() {
+        this(0, 0);
+    }
+
+    @Override
+    public PutObjectResult putObject(PutObjectRequest putObjectRequest) throws SdkClientException {
+        byte[] content = readContent(putObjectRequest.getInputStream(), putObjectRequest.getFile() == null ? null
+                : putObjectRequest.getFile().getPath());
+        ObjectMetadata metadata = putObjectRequest.getMetadata() == null ? new ObjectMetadata()
+                : putObjectRequest.getMetadata().clone();
+        verifyMD5(metadata.getContentMD5(), content);
+        simulate(content.length);
+
+        StoredObject obj = new StoredObject(content, metadata);
+        objects.put(path(putObjectRequest.getBucketName(), putObjectRequest.getKey()), obj);
+
+        PutObjectResult result = new PutObjectResult();
+        result.setETag(obj.eTag);
+        return result;
+    }
+
+    @Override
+    public S3Object getObject(GetObjectRequest getObjectRequest) throws SdkClientException {
+        StoredObject obj = find(getObjectRequest.getBucketName(), getObjectRequest.getKey());
+
+        byte[] content = obj.content;
+        long[] range = getObjectRequest.getRange();
+        if (range != null) {
+            int start = (int) Math.min(range[0], content.length);
+            int end = (int) Math.min(range[1] + 1, content.length);
+            content = Arrays.copyOfRange(content, start, end);
+        }
+        simulate(content.length);
+
+        ObjectMetadata metadata = obj.metadata(content.length);
+        S3Object s3Object = new S3Object();
+        s3Object.setBucketName(getObjectRequest.getBucketName());
+        s3Object.setKey(getObjectRequest.getKey());
+        s3Object.setObjectMetadata(metadata);
+        s3Object.setObjectContent(new ByteArrayInputStream(content));
+        return s3Object;
+    }
+
+    @Override
+    public ObjectMetadata getObjectMetadata(GetObjectMetadataRequest getObjectMetadataRequest)
+            throws SdkClientException {
+        StoredObject obj = find(getObjectMetadataRequest.getBucketName(), getObjectMetadataRequest.getKey());
+        simulate(0);
+        return obj.metadata(obj.content.length);
+    }
+
+    @Override
+    public ObjectMetadata getObjectMetadata(String bucketName, String key) throws SdkClientException {
+        return getObjectMetadata(new GetObjectMetadataRequest(bucketName, key));
+    }
+
+    @Override
+    public void deleteObject(DeleteObjectRequest deleteObjectRequest) throws SdkClientException {
+        simulate(0);
+        objects.remove(path(deleteObjectRequest.getBucketName(), deleteObjectRequest.getKey()));
+    }
+
+    @Override
+    public void deleteObject(String bucketName, String key) throws SdkClientException {
+        deleteObject(new DeleteObjectRequest(bucketName, key));
+    }
+
+    @Override
+    public InitiateMultipartUploadResult initiateMultipartUpload(
+            InitiateMultipartUploadRequest initiateMultipartUploadRequest) throws SdkClientException {
+        simulate(0);
+        String uploadId = UUID.randomUUID().toString();
+        ObjectMetadata metadata = initiateMultipartUploadRequest.getObjectMetadata() == null ? new ObjectMetadata()
+                : initiateMultipartUploadRequest.getObjectMetadata().clone();
+        uploads.put(uploadId, new Upload(metadata));
+
+        InitiateMultipartUploadResult result = new InitiateMultipartUploadResult();
+        result.setBucketName(initiateMultipartUploadRequest.getBucketName());
+        result.setKey(initiateMultipartUploadRequest.getKey());
+        result.setUploadId(uploadId);
+        return result;
+    }
+
+    @Override
+    public UploadPartResult uploadPart(UploadPartRequest uploadPartRequest) throws SdkClientException {
+        Upload upload = findUpload(uploadPartRequest.getUploadId());
+        byte[] content = readContent(uploadPartRequest.getInputStream(), uploadPartRequest.getFile() == null ? null
+                : uploadPartRequest.getFile().getPath());
+        verifyMD5(uploadPartRequest.getMd5Digest(), content);
+        simulate(content.length);
+
+        upload.parts.put(uploadPartRequest.getPartNumber(), content);
+
+        UploadPartResult result = new UploadPartResult();
+        result.setPartNumber(uploadPartRequest.getPartNumber());
+        result.setETag(DigestUtils.md5Hex(content));
+        return result;
+    }
+
+    @Override
+    public CompleteMultipartUploadResult completeMultipartUpload(
+            CompleteMultipartUploadRequest completeMultipartUploadRequest) throws SdkClientException {
+        Upload upload = findUpload(completeMultipartUploadRequest.getUploadId());
+        simulate(0);
+
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        List<PartETag> partETags = completeMultipartUploadRequest.getPartETags();
+        for (PartETag partETag : partETags) {
+            byte[] part = upload.parts.get(partETag.getPartNumber());
+            if (part == null) {
+                throw notFound("InvalidPart", "part " + partETag.getPartNumber() + " has not been uploaded");
+            }
+            content.write(part, 0, part.length);
+        }
+        uploads.remove(completeMultipartUploadRequest.getUploadId());
+
+        StoredObject obj = new StoredObject(content.toByteArray(), upload.metadata);
+        objects.put(path(completeMultipartUploadRequest.getBucketName(), completeMultipartUploadRequest.getKey()),
+                obj);
+
+        CompleteMultipartUploadResult result = new CompleteMultipartUploadResult();
+        result.setBucketName(completeMultipartUploadRequest.getBucketName());
+        result.setKey(completeMultipartUploadRequest.getKey());
+        result.setETag(obj.eTag + "-" + partETags.size());
+        return result;
+    }
+
+    @Override
+    public void abortMultipartUpload(AbortMultipartUploadRequest abortMultipartUploadRequest)
+            throws SdkClientException {
+        simulate(0);
+        uploads.remove(abortMultipartUploadRequest.getUploadId());
+    }
+
+    /**
+     * @return the total number of bytes stored, excluding incomplete uploads
+     */
+    public long getStoredBytes() {
+        long total = 0;
+        for (StoredObject obj : objects.values()) {
+            total += obj.content.length;
+        }
+        return total;
+    }
+
+    private void simulate(long bytes) {
+        long nanos = latencyNanos;
+        if (bytesPerSecond > 0) {
+            nanos += bytes * TimeUnit.SECONDS.toNanos(1) / bytesPerSecond;
+        }
+        if (nanos <= 0) {
+            return;
+        }
+        try {
+            TimeUnit.NANOSECONDS.sleep(nanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SdkClientException(e);
+        }
+    }
+
+    private byte[] readContent(InputStream input, String file) {
+        try {
+            if (input == null) {
+                input = new FileInputStream(file);
+            }
+            try {
+                return IOUtils.toByteArray(input);
+            } finally {
+                input.close();
+            }
+        } catch (IOException e) {
+            throw new SdkClientException(e);
+        }
+    }
+
+    private void verifyMD5(String contentMD5, byte[] content) {
+        if (contentMD5 != null && !contentMD5.equals(Base64.encodeBase64String(DigestUtils.md5(content)))) {
+            AmazonS3Exception e = new AmazonS3Exception("The Content-MD5 you specified did not match what we received.");
+            e.setStatusCode(400);
+            e.setErrorCode("BadDigest");
+            throw e;
+        }
+    }
+
+    private StoredObject find(String bucketName, String key) {
+        StoredObject obj = objects.get(path(bucketName, key));
+        if (obj == null) {
+            throw notFound("NoSuchKey", "The specified key does not exist.");
+        }
+        return obj;
+    }
+
+    private Upload findUpload(String uploadId) {
+        Upload upload = uploads.get(uploadId);
+        if (upload == null) {
+            throw notFound("NoSuchUpload", "The specified upload does not exist.");
+        }
+        return upload;
+    }
+
+    private AmazonS3Exception notFound(String errorCode, String message) {
+        AmazonS3Exception e = new AmazonS3Exception(message);
+        e.setStatusCode(404);
+        e.setErrorCode(errorCode);
+        return e;
+    }
+
+    private String path(String bucketName, String key) {
+        return bucketName + "/" + key;
+    }
+
+    private static class StoredObject {
+        private final byte[] content;
+        private final ObjectMetadata metadata;
+        private final String eTag;
+        private final Date lastModified = new Date();
+
+        StoredObject(byte[] content, ObjectMetadata metadata) {
+            this.content = content;
+            this.metadata = metadata;
+            this.eTag = DigestUtils.md5Hex(content);
+        }
+
+        ObjectMetadata metadata(long contentLength) {
+            ObjectMetadata copy = new ObjectMetadata();
+            copy.setUserMetadata(new HashMap<String, String>(metadata.getUserMetadata()));
+            if (metadata.getContentType() != null) {
+                copy.setContentType(metadata.getContentType());
+            }
+            copy.setContentLength(contentLength);
+            copy.setLastModified(lastModified);
+            copy.setHeader(Headers.ETAG, eTag);
+            return copy;
+        }
+    }
+
+    private static class Upload {
+        private final ObjectMetadata metadata;
+        private Map<Integer, byte[]> parts = new ConcurrentHashMap<Integer, byte[]>();
+
+        Upload(ObjectMetadata metadata) {
+            this.metadata = metadata;
+        }
+    }
+}
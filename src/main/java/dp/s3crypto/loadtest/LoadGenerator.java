@@ -0,0 +1,562 @@
+package dp.s3crypto.loadtest;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.interfaces.ECPrivateKey;
+import java.security.interfaces.ECPublicKey;
+import java.security.interfaces.RSAPrivateKey;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import javax.crypto.KeyGenerator;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.NullOutputStream;
+
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PartETag;
+import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.model.UploadPartRequest;
+
+import dp.s3crypto.AESKeyWrapper;
+import dp.s3crypto.ECIESKeyWrapper;
+import dp.s3crypto.MemoryBudget;
+import dp.s3crypto.RSAKeyWrapper;
+import dp.s3crypto.S3CryptoClient;
+import dp.s3crypto.S3CryptoClientBuilder;
+import dp.s3crypto.S3CryptoUploadSubscriber;
+
+/**
+ * Runs a mix of concurrent put, get and multipart operations through
+ * S3CryptoClient and reports throughput and latency percentiles per operation.
+ * By default the backend is an InMemoryS3Client, so no AWS account is needed.
+ *
+ * Options, each given as --name=value:
+ *
+ * <pre>
+ * backend         memory (default) or s3, which uses the default credentials and region
+ * max-connections s3 backend connection pool size (default concurrency)
+ * bucket          bucket to use (default loadtest)
+ * mode            psk (default), rsa, aes-kw or ecies
+ * concurrency     number of worker threads (default 8)
+ * duration        seconds to run for (default 30)
+ * keys            number of objects to preload and operate on (default 100)
+ * sizes           weighted object sizes, e.g. 4k:60,64k:30,8m:10 (default 64k)
+ * mix             weighted operations, e.g. put:30,get:60,multipart:10 (default put:50,get:50)
+ * latency-ms      memory backend latency per request (default 0)
+ * bandwidth-mbps  memory backend bandwidth per request in megabits, 0 for unlimited (default 0)
+ * memory-mb       blocking client memory budget in megabytes, 0 for unlimited (default 0)
+ * verify          true to check each get against the content last written to the key (default false)
+ * </pre>
+ */
+public class LoadGenerator {
+
+    private static final int CHUNK_SIZE = 5 * 1024 * 1024;
+
+    private static final String PUT = "put";
+    private static final String GET = "get";
+    private static final String MULTIPART = "multipart";
+
+    private final S3CryptoClient client;
+    private final String bucket;
+    private final byte[] psk;
+    private final int keys;
+    private final Weighted<Integer> sizes;
+    private final Weighted<String> mix;
+    private final byte[] data;
+    private final ReadWriteLock[] locks;
+    private final int[] writtenSizes;
+    private boolean verify;
+    private final Map<String, LatencyRecorder> recorders = new LinkedHashMap<String, LatencyRecorder>();
+
+    public LoadGenerator(S3CryptoClient client, String bucket, byte[] psk, int keys, Weighted<Integer> sizes,
+            Weighted<String> mix) {
+        this.client = client;
+        this.bucket = bucket;
+        this.psk = psk;
+        this.keys = keys;
+        this.sizes = sizes;
+        this.mix = mix;
+
+        int maxSize = 0;
+        for (Integer size : sizes.values()) {
+            maxSize = Math.max(maxSize, size);
+        }
+        this.data = new byte[maxSize];
+        new Random().nextBytes(data);
+
+        this.locks = new ReadWriteLock[keys];
+        for (int i = 0; i < keys; i++) {
+            locks[i] = new ReentrantReadWriteLock();
+        }
+        this.writtenSizes = new int[keys];
+
+        for (String op : mix.values()) {
+            recorders.put(op, new LatencyRecorder());
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parseOptions(args);
+
+        int concurrency = Integer.parseInt(option(options, "concurrency", "8"));
+        S3CryptoClientBuilder builder = S3CryptoClientBuilder.standard();
+
+        if ("s3".equals(option(options, "backend", "memory"))) {
+            builder.withMaxConnections(Integer.parseInt(option(options, "max-connections", String.valueOf(concurrency))))
+                    .withConnectionPoolStats(true);
+        } else {
+            long latencyMillis = Long.parseLong(option(options, "latency-ms", "0"));
+            long bytesPerSecond = Long.parseLong(option(options, "bandwidth-mbps", "0")) * 1000 * 1000 / 8;
+            builder.withS3Client(new InMemoryS3Client(latencyMillis, bytesPerSecond));
+        }
+
+        long memoryBudgetBytes = Long.parseLong(option(options, "memory-mb", "0")) * 1024 * 1024;
+        if (memoryBudgetBytes > 0) {
+            builder.withMemoryBudget(MemoryBudget.blocking(memoryBudgetBytes));
+        }
+
+        String mode = option(options, "mode", "psk");
+        byte[] psk = null;
+        if ("psk".equals(mode)) {
+            psk = new byte[16];
+            new Random().nextBytes(psk);
+        } else if ("rsa".equals(mode)) {
+            KeyPairGenerator kpg = KeyPairGenerator.getInstance("RSA");
+            kpg.initialize(2048);
+            builder.withKeyWrapper(new RSAKeyWrapper((RSAPrivateKey) kpg.generateKeyPair().getPrivate()));
+        } else if ("aes-kw".equals(mode)) {
+            KeyGenerator kg = KeyGenerator.getInstance("AES");
+            kg.init(128);
+            builder.withKeyWrapper(new AESKeyWrapper(kg.generateKey()));
+        } else if ("ecies".equals(mode)) {
+            KeyPairGenerator kpg = KeyPairGenerator.getInstance("EC");
+            kpg.initialize(256);
+            KeyPair kp = kpg.generateKeyPair();
+            builder.withKeyWrapper(new ECIESKeyWrapper((ECPublicKey) kp.getPublic(), (ECPrivateKey) kp.getPrivate()));
+        } else {
+            throw new IllegalArgumentException("unknown mode " + mode);
+        }
+        S3CryptoClient client = builder.build();
+
+        int duration = Integer.parseInt(option(options, "duration", "30"));
+        int keys = Integer.parseInt(option(options, "keys", "100"));
+        Weighted<Integer> sizes = Weighted.parseSizes(option(options, "sizes", "64k"));
+        Weighted<String> mix = Weighted.parseOperations(option(options, "mix", "put:50,get:50"));
+
+        LoadGenerator generator = new LoadGenerator(client, option(options, "bucket", "loadtest"), psk, keys, sizes,
+                mix);
+        generator.setVerify(Boolean.parseBoolean(option(options, "verify", "false")));
+
+        System.out.println("mode=" + mode + " concurrency=" + concurrency + " duration=" + duration + "s keys=" + keys
+                + " sizes=" + sizes + " mix=" + mix);
+        generator.preload(concurrency);
+        long elapsedNanos = generator.run(concurrency, TimeUnit.SECONDS.toNanos(duration));
+        generator.report(System.out, elapsedNanos);
+        if (client.getConnectionPoolStats() != null) {
+            System.out.println(client.getConnectionPoolStats());
+        }
+        if (client.getMemoryBudget() != null) {
+            System.out.println(client.getMemoryBudget());
+        }
+    }
+
+    /**
+     * Sets whether each get is checked against the content last written to its
+     * key, failing the get if it differs. Gets of a key then wait for writes to
+     * it to finish, so they always see a complete write.
+     */
+    public void setVerify(boolean verify) {
+        this.verify = verify;
+    }
+
+    /**
+     * Writes every key once so that gets have something to read.
+     */
+    public void preload(int concurrency) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+        try {
+            List<Future<Long>> futures = new ArrayList<Future<Long>>();
+            for (int i = 0; i < keys; i++) {
+                final int index = i;
+                futures.add(executor.submit(new Callable<Long>() {
+                    @Override
+                    public Long call() throws Exception {
+                        return put(index, sizes.next());
+                    }
+                }));
+            }
+            for (Future<Long> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Runs randomly chosen operations on randomly chosen keys from each worker
+     * thread until the duration has passed.
+     *
+     * @return the nanoseconds from starting the workers until the last finished
+     *         its final operation, which may overrun the duration
+     */
+    public long run(int concurrency, long durationNanos) throws Exception {
+        long start = System.nanoTime();
+        final long deadline = start + durationNanos;
+        ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+        try {
+            List<Future<Void>> futures = new ArrayList<Future<Void>>();
+            for (int i = 0; i < concurrency; i++) {
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        while (System.nanoTime() < deadline) {
+                            runOperation(mix.next());
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+            return System.nanoTime() - start;
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Prints throughput over the elapsed time returned by run, and latency
+     * percentiles, for each operation.
+     */
+    public void report(PrintStream out, long elapsedNanos) {
+        double seconds = elapsedNanos / 1e9;
+        out.println(String.format("%-10s %9s %9s %9s %9s %9s %9s %7s", "op", "count", "ops/s", "MB/s", "p50 ms",
+                "p99 ms", "p999 ms", "errors"));
+        for (Map.Entry<String, LatencyRecorder> entry : recorders.entrySet()) {
+            LatencyRecorder recorder = entry.getValue();
+            long[] latencies = recorder.sorted();
+            out.println(String.format("%-10s %9d %9.1f %9.2f %9.2f %9.2f %9.2f %7d", entry.getKey(), latencies.length,
+                    latencies.length / seconds, recorder.bytes() / seconds / (1024 * 1024),
+                    percentile(latencies, 0.5), percentile(latencies, 0.99), percentile(latencies, 0.999),
+                    recorder.errors()));
+        }
+    }
+
+    private void runOperation(String op) {
+        int index = ThreadLocalRandom.current().nextInt(keys);
+        LatencyRecorder recorder = recorders.get(op);
+        long start = System.nanoTime();
+        try {
+            long bytes;
+            if (PUT.equals(op)) {
+                bytes = put(index, sizes.next());
+            } else if (GET.equals(op)) {
+                bytes = get(index);
+            } else {
+                bytes = multipart(index, sizes.next());
+            }
+            recorder.record(System.nanoTime() - start, bytes);
+        } catch (Exception e) {
+            if (recorder.error()) {
+                System.err.println("first " + op + " error, on " + key(index) + ":");
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Writes to a key are serialized, as concurrent multipart uploads of the same
+     * key would share its stored encrypted PSK. Every write is a prefix of the
+     * data array, so only its size needs recording for gets to be verified.
+     */
+    private long put(int index, int size) {
+        String key = key(index);
+        ObjectMetadata metadata = new ObjectMetadata();
+        metadata.setContentLength(size);
+        InputStream content = new ByteArrayInputStream(data, 0, size);
+
+        Lock lock = locks[index].writeLock();
+        lock.lock();
+        try {
+            if (psk == null) {
+                client.putObject(bucket, key, content, metadata);
+            } else {
+                client.putObjectWithPSK(bucket, key, content, psk, metadata);
+            }
+            writtenSizes[index] = size;
+        } finally {
+            lock.unlock();
+        }
+        return size;
+    }
+
+    private long get(int index) throws Exception {
+        if (!verify) {
+            return get(key(index), -1);
+        }
+        Lock lock = locks[index].readLock();
+        lock.lock();
+        try {
+            return get(key(index), writtenSizes[index]);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Reads an object, checking it against the first expectedSize bytes of the
+     * data array unless expectedSize is negative.
+     */
+    private long get(String key, int expectedSize) throws Exception {
+        GetObjectRequest getObjectRequest = new GetObjectRequest(bucket, key);
+        S3Object obj = psk == null ? client.getObject(getObjectRequest)
+                : client.getObjectWithPSK(getObjectRequest, psk);
+        try {
+            if (expectedSize < 0) {
+                return IOUtils.copyLarge(obj.getObjectContent(), NullOutputStream.NULL_OUTPUT_STREAM);
+            }
+            return verify(key, obj.getObjectContent(), expectedSize);
+        } finally {
+            obj.close();
+        }
+    }
+
+    private long verify(String key, InputStream content, int expectedSize) throws IOException {
+        byte[] buffer = new byte[64 * 1024];
+        long offset = 0;
+        int n;
+        while ((n = content.read(buffer)) != -1) {
+            for (int i = 0; i < n; i++) {
+                if (offset + i >= expectedSize || buffer[i] != data[(int) offset + i]) {
+                    throw new IOException(key + " differs from the content written at byte " + (offset + i));
+                }
+            }
+            offset += n;
+        }
+        if (offset != expectedSize) {
+            throw new IOException(key + " has " + offset + " bytes but " + expectedSize + " were written");
+        }
+        return offset;
+    }
+
+    private long multipart(int index, int size) throws Exception {
+        Lock lock = locks[index].writeLock();
+        lock.lock();
+        try {
+            long written = multipart(key(index), size);
+            writtenSizes[index] = size;
+            return written;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Uploads the first size bytes of the data array in parts of a chunk. With a
+     * PSK each part is encrypted on its own, the format getObjectWithPSK reads.
+     * Without one the upload goes through putObjectSubscriber, as only it
+     * encrypts the parts as the one cipher stream getObject reads.
+     */
+    private long multipart(String key, int size) throws Exception {
+        if (psk == null) {
+            S3CryptoUploadSubscriber subscriber = client
+                    .putObjectSubscriber(new InitiateMultipartUploadRequest(bucket, key));
+            new ArrayPublisher(data, 0, size).subscribe(subscriber);
+            subscriber.get();
+            return size;
+        }
+
+        String uploadId = client.initiateMultipartUpload(new InitiateMultipartUploadRequest(bucket, key))
+                .getUploadId();
+        List<PartETag> partETags = new ArrayList<PartETag>();
+
+        for (int offset = 0; offset < size || partETags.isEmpty(); offset += CHUNK_SIZE) {
+            int length = Math.min(CHUNK_SIZE, size - offset);
+            UploadPartRequest uploadPartRequest = new UploadPartRequest().withBucketName(bucket).withKey(key)
+                    .withUploadId(uploadId).withPartNumber(partETags.size() + 1)
+                    .withInputStream(new ByteArrayInputStream(data, offset, length)).withPartSize(length);
+            partETags.add(client.uploadPartWithPSK(uploadPartRequest, psk).getPartETag());
+        }
+
+        client.completeMultipartUpload(new CompleteMultipartUploadRequest(bucket, key, uploadId, partETags));
+        return size;
+    }
+
+    private static String key(int i) {
+        return "loadtest/object-" + i;
+    }
+
+    private static double percentile(long[] sorted, double p) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(p * sorted.length) - 1;
+        return sorted[Math.max(0, index)] / 1e6;
+    }
+
+    private static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new HashMap<String, String>();
+        for (String arg : args) {
+            if (!arg.startsWith("--") || !arg.contains("=")) {
+                throw new IllegalArgumentException("options must be given as --name=value but got " + arg);
+            }
+            int eq = arg.indexOf('=');
+            options.put(arg.substring(2, eq), arg.substring(eq + 1));
+        }
+        return options;
+    }
+
+    private static String option(Map<String, String> options, String name, String defaultValue) {
+        String value = options.get(name);
+        return value == null ? defaultValue : value;
+    }
+
+    /**
+     * Collects operation latencies and bytes transferred from many threads.
+     */
+    static class LatencyRecorder {
+        private long[] latencies = new long[1024];
+        private int count;
+        private long bytes;
+        private long errors;
+
+        synchronized void record(long latencyNanos, long transferred) {
+            if (count == latencies.length) {
+                latencies = Arrays.copyOf(latencies, count * 2);
+            }
+            latencies[count++] = latencyNanos;
+            bytes += transferred;
+        }
+
+        /**
+         * @return true for the first error, so it can be reported
+         */
+        synchronized boolean error() {
+            return errors++ == 0;
+        }
+
+        synchronized long[] sorted() {
+            long[] sorted = Arrays.copyOf(latencies, count);
+            Arrays.sort(sorted);
+            return sorted;
+        }
+
+        synchronized long bytes() {
+            return bytes;
+        }
+
+        synchronized long errors() {
+            return errors;
+        }
+    }
+
+    /**
+     * Picks values at random in proportion to their weights, parsed from a list
+     * such as 4k:60,64k:40. A value without a weight has a weight of 1.
+     */
+    public static class Weighted<T> {
+        private final List<T> values = new ArrayList<T>();
+        private final List<Integer> cumulative = new ArrayList<Integer>();
+        private final String description;
+        private int total;
+
+        private Weighted(String description) {
+            this.description = description;
+        }
+
+        public static Weighted<Integer> parseSizes(String spec) {
+            Weighted<Integer> weighted = new Weighted<Integer>(spec);
+            for (String item : spec.split(",")) {
+                String[] parts = item.trim().split(":");
+                weighted.add(parseSize(parts[0]), parts.length > 1 ? Integer.parseInt(parts[1]) : 1);
+            }
+            return weighted.validate();
+        }
+
+        public static Weighted<String> parseOperations(String spec) {
+            Weighted<String> weighted = new Weighted<String>(spec);
+            for (String item : spec.split(",")) {
+                String[] parts = item.trim().split(":");
+                String op = parts[0].toLowerCase();
+                if (!PUT.equals(op) && !GET.equals(op) && !MULTIPART.equals(op)) {
+                    throw new IllegalArgumentException("unknown operation " + op);
+                }
+                weighted.add(op, parts.length > 1 ? Integer.parseInt(parts[1]) : 1);
+            }
+            return weighted.validate();
+        }
+
+        static int parseSize(String size) {
+            String s = size.trim().toLowerCase();
+            int multiplier = 1;
+            if (s.endsWith("k")) {
+                multiplier = 1024;
+            } else if (s.endsWith("m")) {
+                multiplier = 1024 * 1024;
+            }
+            if (multiplier > 1) {
+                s = s.substring(0, s.length() - 1);
+            }
+            return Integer.parseInt(s) * multiplier;
+        }
+
+        private void add(T value, int weight) {
+            if (weight <= 0) {
+                return;
+            }
+            total += weight;
+            values.add(value);
+            cumulative.add(total);
+        }
+
+        private Weighted<T> validate() {
+            if (total == 0) {
+                throw new IllegalArgumentException("at least one positive weight is required in " + description);
+            }
+            return this;
+        }
+
+        List<T> values() {
+            return values;
+        }
+
+        T next() {
+            int r = ThreadLocalRandom.current().nextInt(total);
+            for (int i = 0; i < values.size(); i++) {
+                if (r < cumulative.get(i)) {
+                    return values.get(i);
+                }
+            }
+            return values.get(values.size() - 1);
+        }
+
+        @Override
+        public String toString() {
+            return description;
+        }
+    }
+}
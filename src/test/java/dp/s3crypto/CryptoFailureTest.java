@@ -0,0 +1,109 @@
+package dp.s3crypto;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.security.GeneralSecurityException;
+
+import org.junit.Test;
+
+import com.amazonaws.SdkClientException;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+
+import dp.s3crypto.loadtest.InMemoryS3Client;
+
+/**
+ * Failures to encrypt or decrypt throw, rather than sending or returning
+ * content which is not encrypted.
+ */
+public class CryptoFailureTest {
+
+    private static final String BUCKET = "test";
+
+    private final InMemoryS3Client s3 = new InMemoryS3Client();
+
+    @Test
+    public void putObjectThrowsWithoutStoringWhenWrappingFails() {
+        S3CryptoClient client = new S3CryptoClient(s3, new FailingKeyWrapper());
+        try {
+            client.putObject(putRequest("k", new byte[100]));
+            fail("put without a wrapped PSK");
+        } catch (SdkClientException e) {
+            // expected
+        }
+        assertEquals(0, s3.getStoredBytes());
+    }
+
+    @Test
+    public void initiateMultipartUploadThrowsWhenWrappingFails() {
+        S3CryptoClient client = new S3CryptoClient(s3, new FailingKeyWrapper());
+        try {
+            client.initiateMultipartUpload(new InitiateMultipartUploadRequest(BUCKET, "k"));
+            fail("initiated without a wrapped PSK");
+        } catch (SdkClientException e) {
+            // expected
+        }
+        assertEquals(0, s3.getStoredBytes());
+    }
+
+    @Test
+    public void getObjectThrowsForUnencryptedObject() {
+        s3.putObject(putRequest("plain", "not encrypted".getBytes()));
+        S3CryptoClient client = new S3CryptoClient(s3, new AESKeyWrapper(new byte[16]));
+        try {
+            client.getObject(BUCKET, "plain");
+            fail("returned an unencrypted object");
+        } catch (SdkClientException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void getObjectThrowsWhenUnwrappingFails() {
+        new S3CryptoClient(s3, new AESKeyWrapper(new byte[16])).putObject(putRequest("k", new byte[100]));
+        S3CryptoClient client = new S3CryptoClient(s3, new FailingKeyWrapper(AESKeyWrapper.ALGORITHM));
+        try {
+            client.getObject(BUCKET, "k");
+            fail("returned content without unwrapping its PSK");
+        } catch (SdkClientException e) {
+            // expected
+        }
+    }
+
+    private static PutObjectRequest putRequest(String key, byte[] content) {
+        ObjectMetadata metadata = new ObjectMetadata();
+        metadata.setContentLength(content.length);
+        return new PutObjectRequest(BUCKET, key, new ByteArrayInputStream(content), metadata);
+    }
+
+    private static class FailingKeyWrapper implements KeyWrapper {
+
+        private final String algorithm;
+
+        FailingKeyWrapper() {
+            this("failing");
+        }
+
+        FailingKeyWrapper(String algorithm) {
+            this.algorithm = algorithm;
+        }
+
+        @Override
+        public String getAlgorithm() {
+            return algorithm;
+        }
+
+        @Override
+        public byte[] wrapKey(byte[] psk) throws GeneralSecurityException {
+            throw new GeneralSecurityException("cannot wrap");
+        }
+
+        @Override
+        public byte[] unwrapKey(byte[] wrappedKey) throws GeneralSecurityException {
+            throw new GeneralSecurityException("cannot unwrap");
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package dp.s3crypto;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import com.amazonaws.SdkClientException;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.PutObjectResult;
+import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.model.SSECustomerKey;
+import com.amazonaws.services.s3.model.UploadPartRequest;
+import com.amazonaws.services.s3.model.UploadPartResult;
+
+import dp.s3crypto.loadtest.InMemoryS3Client;
+
+/**
+ * Checks of the uploaded ciphertext against its Content-MD5 and ETag, and of the
+ * decrypted plaintext against its stored digest.
+ */
+public class IntegrityTest {
+
+    private static final String BUCKET = "test";
+    private static final String WRONG_ETAG = "00000000000000000000000000000000";
+
+    private final byte[] psk = randomBytes(16, 0);
+
+    @Test
+    public void putObjectSendsMD5OfCipherText() {
+        final String[] sentMD5 = new String[1];
+        InMemoryS3Client s3 = new InMemoryS3Client() {
+            @Override
+            public PutObjectResult putObject(PutObjectRequest putObjectRequest) {
+                sentMD5[0] = putObjectRequest.getMetadata().getContentMD5();
+                return super.putObject(putObjectRequest);
+            }
+        };
+        new S3CryptoClient(s3, new AESKeyWrapper(psk)).putObject(putRequest("k", randomBytes(1000, 1)));
+
+        byte[] stored = storedContent(s3, "k");
+        assertNotNull(sentMD5[0]);
+        assertEquals(Base64.encodeBase64String(DigestUtils.md5(stored)), sentMD5[0]);
+    }
+
+    @Test
+    public void uploadPartSendsMD5OfCipherText() {
+        final String[] sentMD5 = new String[1];
+        InMemoryS3Client s3 = new InMemoryS3Client() {
+            @Override
+            public UploadPartResult uploadPart(UploadPartRequest uploadPartRequest) {
+                sentMD5[0] = uploadPartRequest.getMd5Digest();
+                return super.uploadPart(uploadPartRequest);
+            }
+        };
+        S3CryptoClient client = new S3CryptoClient(s3);
+        String uploadId = s3.initiateMultipartUpload(new InitiateMultipartUploadRequest(BUCKET, "k")).getUploadId();
+        client.uploadPartWithPSK(partRequest(uploadId, randomBytes(1000, 1)), psk);
+
+        assertNotNull(sentMD5[0]);
+        assertEquals(24, sentMD5[0].length());
+    }
+
+    @Test
+    public void putObjectThrowsWhenETagDoesNotMatch() {
+        S3CryptoClient client = new S3CryptoClient(new WrongETagS3Client(), new AESKeyWrapper(psk));
+        try {
+            client.putObject(putRequest("k", randomBytes(1000, 1)));
+            fail("accepted an ETag which is not the MD5 of the ciphertext");
+        } catch (SdkClientException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("ETag"));
+        }
+    }
+
+    @Test
+    public void putObjectWithPSKThrowsWhenETagDoesNotMatch() {
+        S3CryptoClient client = new S3CryptoClient(new WrongETagS3Client());
+        try {
+            client.putObjectWithPSK(putRequest("k", randomBytes(1000, 1)), psk);
+            fail("accepted an ETag which is not the MD5 of the ciphertext");
+        } catch (SdkClientException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("ETag"));
+        }
+    }
+
+    @Test
+    public void uploadPartThrowsWhenETagDoesNotMatch() {
+        WrongETagS3Client s3 = new WrongETagS3Client();
+        S3CryptoClient client = new S3CryptoClient(s3);
+        String uploadId = s3.initiateMultipartUpload(new InitiateMultipartUploadRequest(BUCKET, "k")).getUploadId();
+        try {
+            client.uploadPartWithPSK(partRequest(uploadId, randomBytes(1000, 1)), psk);
+            fail("accepted an ETag which is not the MD5 of the ciphertext");
+        } catch (SdkClientException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("ETag"));
+        }
+    }
+
+    @Test
+    public void customerKeyETagIsNotVerified() {
+        S3CryptoClient client = new S3CryptoClient(new WrongETagS3Client(), new AESKeyWrapper(psk));
+        PutObjectRequest putObjectRequest = putRequest("k", randomBytes(1000, 1))
+                .withSSECustomerKey(new SSECustomerKey(randomBytes(32, 2)));
+        client.putObject(putObjectRequest);
+    }
+
+    @Test
+    public void getObjectThrowsWhenPlainTextDigestDoesNotMatch() throws Exception {
+        InMemoryS3Client s3 = new InMemoryS3Client();
+        S3CryptoClient client = new S3CryptoClient(s3, new AESKeyWrapper(psk));
+        client.setStorePlainTextDigest(true);
+        byte[] content = randomBytes(1000, 1);
+        client.putObject(putRequest("k", content));
+
+        S3Object obj = client.getObject(BUCKET, "k");
+        try {
+            assertArrayEquals(content, IOUtils.toByteArray(obj.getObjectContent()));
+        } finally {
+            obj.close();
+        }
+
+        storeWithDigest(s3, "k", DigestUtils.sha256Hex("other content"));
+        try {
+            client.getObject(BUCKET, "k");
+            fail("returned content which does not match its digest");
+        } catch (SdkClientException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("digest mismatch"));
+        }
+    }
+
+    @Test
+    public void rangedGetObjectSkipsPlainTextDigest() throws Exception {
+        InMemoryS3Client s3 = new InMemoryS3Client();
+        S3CryptoClient client = new S3CryptoClient(s3, new AESKeyWrapper(psk));
+        client.setStorePlainTextDigest(true);
+        byte[] content = randomBytes(1000, 1);
+        client.putObject(putRequest("k", content));
+
+        S3Object obj = client.getObject(new GetObjectRequest(BUCKET, "k").withRange(0, 99));
+        try {
+            assertEquals(100, IOUtils.toByteArray(obj.getObjectContent()).length);
+        } finally {
+            obj.close();
+        }
+    }
+
+    /**
+     * Replaces the stored plaintext digest of an object, leaving its content as
+     * it was.
+     */
+    private static void storeWithDigest(InMemoryS3Client s3, String key, String digest) {
+        S3Object obj = s3.getObject(BUCKET, key);
+        ObjectMetadata metadata = obj.getObjectMetadata().clone();
+        metadata.addUserMetadata("Plaintext-Sha256", digest);
+        metadata.setContentMD5(null);
+        s3.putObject(new PutObjectRequest(BUCKET, key, obj.getObjectContent(), metadata));
+    }
+
+    private static byte[] storedContent(InMemoryS3Client s3, String key) {
+        S3Object obj = s3.getObject(BUCKET, key);
+        try {
+            return IOUtils.toByteArray(obj.getObjectContent());
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static PutObjectRequest putRequest(String key, byte[] content) {
+        ObjectMetadata metadata = new ObjectMetadata();
+        metadata.setContentLength(content.length);
+        return new PutObjectRequest(BUCKET, key, new ByteArrayInputStream(content), metadata);
+    }
+
+    private static UploadPartRequest partRequest(String uploadId, byte[] content) {
+        return new UploadPartRequest().withBucketName(BUCKET).withKey("k").withUploadId(uploadId).withPartNumber(1)
+                .withInputStream(new ByteArrayInputStream(content)).withPartSize(content.length);
+    }
+
+    private static byte[] randomBytes(int length, long seed) {
+        byte[] bytes = new byte[length];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+
+    /**
+     * Stores content as sent but returns ETags which match no content.
+     */
+    private static class WrongETagS3Client extends InMemoryS3Client {
+
+        @Override
+        public PutObjectResult putObject(PutObjectRequest putObjectRequest) {
+            PutObjectResult result = super.putObject(putObjectRequest);
+            result.setETag(WRONG_ETAG);
+            return result;
+        }
+
+        @Override
+        public UploadPartResult uploadPart(UploadPartRequest uploadPartRequest) {
+            UploadPartResult result = super.uploadPart(uploadPartRequest);
+            result.setETag(WRONG_ETAG);
+            return result;
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package dp.s3crypto;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.interfaces.ECPrivateKey;
+import java.security.interfaces.ECPublicKey;
+import java.security.interfaces.RSAPrivateKey;
+import java.security.interfaces.RSAPublicKey;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.amazonaws.SdkClientException;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.S3Object;
+
+import dp.s3crypto.loadtest.ArrayPublisher;
+import dp.s3crypto.loadtest.InMemoryS3Client;
+
+public class KeyWrapperTest {
+
+    private static final String BUCKET = "test";
+
+    private static KeyPair rsaKeyPair;
+    private static KeyPair ecKeyPair;
+
+    @BeforeClass
+    public static void generateKeys() throws Exception {
+        KeyPairGenerator rsa = KeyPairGenerator.getInstance("RSA");
+        rsa.initialize(2048);
+        rsaKeyPair = rsa.generateKeyPair();
+
+        KeyPairGenerator ec = KeyPairGenerator.getInstance("EC");
+        ec.initialize(256);
+        ecKeyPair = ec.generateKeyPair();
+    }
+
+    @Test
+    public void rsaWrapsAndUnwraps() throws Exception {
+        assertWrapRoundTrip(new RSAKeyWrapper((RSAPrivateKey) rsaKeyPair.getPrivate()));
+    }
+
+    @Test
+    public void aesWrapsAndUnwraps() throws Exception {
+        assertWrapRoundTrip(new AESKeyWrapper(randomBytes(16)));
+    }
+
+    @Test
+    public void eciesWrapsAndUnwraps() throws Exception {
+        assertWrapRoundTrip(new ECIESKeyWrapper((ECPublicKey) ecKeyPair.getPublic(),
+                (ECPrivateKey) ecKeyPair.getPrivate()));
+    }
+
+    @Test
+    public void rsaObjectRoundTrip() throws Exception {
+        InMemoryS3Client s3 = new InMemoryS3Client();
+        assertObjectRoundTrip(new S3CryptoClient(s3, new RSAKeyWrapper((RSAPublicKey) rsaKeyPair.getPublic())),
+                new S3CryptoClient(s3, new RSAKeyWrapper((RSAPrivateKey) rsaKeyPair.getPrivate())));
+    }
+
+    @Test
+    public void aesObjectRoundTrip() throws Exception {
+        InMemoryS3Client s3 = new InMemoryS3Client();
+        S3CryptoClient client = new S3CryptoClient(s3, new AESKeyWrapper(randomBytes(32)));
+        assertObjectRoundTrip(client, client);
+    }
+
+    @Test
+    public void eciesObjectRoundTrip() throws Exception {
+        InMemoryS3Client s3 = new InMemoryS3Client();
+        assertObjectRoundTrip(new S3CryptoClient(s3, new ECIESKeyWrapper((ECPublicKey) ecKeyPair.getPublic())),
+                new S3CryptoClient(s3, new ECIESKeyWrapper((ECPublicKey) ecKeyPair.getPublic(),
+                        (ECPrivateKey) ecKeyPair.getPrivate())));
+    }
+
+    @Test
+    public void publicKeyCannotUnwrap() throws Exception {
+        try {
+            new ECIESKeyWrapper((ECPublicKey) ecKeyPair.getPublic()).unwrapKey(new byte[40]);
+            fail("unwrapped without a private key");
+        } catch (GeneralSecurityException e) {
+            // expected
+        }
+    }
+
+    @Test(expected = SdkClientException.class)
+    public void wrongKeyCannotDecrypt() throws Exception {
+        InMemoryS3Client s3 = new InMemoryS3Client();
+        new S3CryptoClient(s3, new AESKeyWrapper(randomBytes(16))).putObject(putRequest("k", randomBytes(100)));
+        new S3CryptoClient(s3, new AESKeyWrapper(randomBytes(32))).getObject(BUCKET, "k");
+    }
+
+    private static void assertWrapRoundTrip(KeyWrapper keyWrapper) throws Exception {
+        byte[] psk = randomBytes(16);
+        byte[] wrapped = keyWrapper.wrapKey(psk);
+        assertArrayEquals(psk, keyWrapper.unwrapKey(wrapped));
+    }
+
+    /**
+     * Writes objects smaller and larger than a chunk with one client, both whole
+     * and as chunked multipart uploads, and reads them back with the other.
+     */
+    private static void assertObjectRoundTrip(S3CryptoClient writer, S3CryptoClient reader) throws Exception {
+        for (int size : new int[] { 0, 1000, S3CryptoInputStream.SIZE + 1 }) {
+            byte[] content = randomBytes(size);
+
+            writer.putObject(putRequest("object-" + size, content));
+            S3Object obj = reader.getObject(BUCKET, "object-" + size);
+            try {
+                assertArrayEquals(content, IOUtils.toByteArray(obj.getObjectContent()));
+            } finally {
+                obj.close();
+            }
+
+            S3CryptoUploadSubscriber subscriber = writer
+                    .putObjectSubscriber(new InitiateMultipartUploadRequest(BUCKET, "upload-" + size));
+            new ArrayPublisher(content).subscribe(subscriber);
+            subscriber.get(30, TimeUnit.SECONDS);
+            InputStream decrypted = reader.getDecryptedObjectContent(new GetObjectRequest(BUCKET, "upload-" + size),
+                    null);
+            try {
+                assertArrayEquals(content, IOUtils.toByteArray(decrypted));
+            } finally {
+                decrypted.close();
+            }
+        }
+    }
+
+    private static PutObjectRequest putRequest(String key, byte[] content) {
+        ObjectMetadata metadata = new ObjectMetadata();
+        metadata.setContentLength(content.length);
+        return new PutObjectRequest(BUCKET, key, new ByteArrayInputStream(content), metadata);
+    }
+
+    private static byte[] randomBytes(int length) {
+        byte[] bytes = new byte[length];
+        new Random(length).nextBytes(bytes);
+        return bytes;
+    }
+}
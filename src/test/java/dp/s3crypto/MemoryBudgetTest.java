@@ -0,0 +1,223 @@
+package dp.s3crypto;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import com.amazonaws.SdkClientException;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.S3Object;
+
+import dp.s3crypto.loadtest.ArrayPublisher;
+import dp.s3crypto.loadtest.InMemoryS3Client;
+
+/**
+ * Admission to the memory budget, and its release by the streams which hold
+ * reservations.
+ */
+public class MemoryBudgetTest {
+
+    private static final String BUCKET = "test";
+    private static final int SIZE = S3CryptoInputStream.SIZE;
+
+    @Test
+    public void blockingReservationWaitsForRelease() throws Exception {
+        final MemoryBudget budget = MemoryBudget.blocking(100);
+        assertEquals(100, budget.reserve(100));
+
+        final AtomicLong reserved = new AtomicLong(-1);
+        final CountDownLatch finished = new CountDownLatch(1);
+        Thread waiter = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                reserved.set(budget.reserve(10));
+                finished.countDown();
+            }
+        });
+        waiter.start();
+
+        awaitWaiting(budget, 1);
+        assertFalse(finished.await(50, TimeUnit.MILLISECONDS));
+
+        budget.release(100);
+        assertTrue(finished.await(10, TimeUnit.SECONDS));
+        assertEquals(10, reserved.get());
+        assertEquals(10, budget.getReserved());
+        assertEquals(0, budget.getWaitingCount());
+        assertEquals(0, budget.getRejectedCount());
+    }
+
+    @Test
+    public void timedReservationFailsAfterTimeout() {
+        MemoryBudget budget = MemoryBudget.withTimeout(100, 50, TimeUnit.MILLISECONDS);
+        budget.reserve(60);
+
+        long start = System.nanoTime();
+        try {
+            budget.reserve(60);
+            fail("reserved beyond the limit");
+        } catch (SdkClientException e) {
+            // expected
+        }
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+        assertEquals(60, budget.getReserved());
+        assertEquals(1, budget.getRejectedCount());
+        assertEquals(0, budget.getWaitingCount());
+    }
+
+    @Test
+    public void failFastReservationFailsImmediately() {
+        MemoryBudget budget = MemoryBudget.failFast(100);
+        budget.reserve(60);
+        try {
+            budget.reserve(60);
+            fail("reserved beyond the limit");
+        } catch (SdkClientException e) {
+            // expected
+        }
+        assertEquals(60, budget.getReserved());
+        assertEquals(1, budget.getRejectedCount());
+
+        assertEquals(40, budget.reserve(40));
+        assertEquals(100, budget.getReserved());
+    }
+
+    @Test
+    public void reservationIsCappedAtLimit() {
+        MemoryBudget budget = MemoryBudget.failFast(100);
+        assertEquals(100, budget.reserve(250));
+        assertEquals(100, budget.getReserved());
+        assertEquals(0, budget.reserve(0));
+        assertEquals(0, budget.reserve(-1));
+    }
+
+    @Test
+    public void peakIsTrackedAcrossReleases() {
+        MemoryBudget budget = MemoryBudget.blocking(100);
+        budget.reserve(30);
+        budget.reserve(50);
+        budget.release(50);
+        budget.reserve(10);
+        assertEquals(40, budget.getReserved());
+        assertEquals(80, budget.getPeakReserved());
+
+        budget.release(100);
+        assertEquals(0, budget.getReserved());
+        assertEquals(80, budget.getPeakReserved());
+    }
+
+    @Test
+    public void streamReleasesOnClose() throws Exception {
+        MemoryBudget budget = MemoryBudget.blocking(4L * SIZE);
+        byte[] psk = randomBytes(16, 0);
+        S3CryptoInputStream in = new S3CryptoInputStream(encryptedWithPSK(randomBytes(SIZE + 100, 1), psk), psk,
+                null, new CipherProviders(), budget);
+        assertEquals(S3CryptoInputStream.BUFFER_SIZE, budget.getReserved());
+
+        in.read(new byte[100]);
+        in.close();
+        assertEquals(0, budget.getReserved());
+    }
+
+    @Test
+    public void streamReleasesAtEndOfContent() throws Exception {
+        MemoryBudget budget = MemoryBudget.blocking(4L * SIZE);
+        byte[] psk = randomBytes(16, 0);
+        byte[] content = randomBytes(SIZE + 100, 1);
+        S3CryptoInputStream in = new S3CryptoInputStream(encryptedWithPSK(content, psk), psk, null,
+                new CipherProviders(), budget);
+
+        assertArrayEquals(content, IOUtils.toByteArray(in));
+        assertEquals(0, budget.getReserved());
+        in.close();
+        assertEquals(0, budget.getReserved());
+    }
+
+    @Test
+    public void getObjectContentReleasesOnCloseOrEndOfContent() throws Exception {
+        InMemoryS3Client s3 = new InMemoryS3Client();
+        MemoryBudget budget = MemoryBudget.blocking(4L * SIZE);
+        S3CryptoClient client = new S3CryptoClient(s3, new AESKeyWrapper(randomBytes(16, 0)));
+        client.setMemoryBudget(budget);
+
+        byte[] content = randomBytes(1000, 1);
+        client.putObject(putRequest("k", content));
+        assertEquals(0, budget.getReserved());
+
+        S3Object obj = client.getObject(BUCKET, "k");
+        assertEquals(content.length, budget.getReserved());
+        obj.close();
+        assertEquals(0, budget.getReserved());
+
+        obj = client.getObject(BUCKET, "k");
+        assertArrayEquals(content, IOUtils.toByteArray(obj.getObjectContent()));
+        assertEquals(0, budget.getReserved());
+        obj.close();
+        assertEquals(0, budget.getReserved());
+    }
+
+    @Test
+    public void getObjectWithPSKContentReleasesOnClose() throws Exception {
+        InMemoryS3Client s3 = new InMemoryS3Client();
+        MemoryBudget budget = MemoryBudget.blocking(4L * SIZE);
+        S3CryptoClient client = new S3CryptoClient(s3);
+        client.setMemoryBudget(budget);
+        byte[] psk = randomBytes(16, 0);
+
+        byte[] content = randomBytes(SIZE + 100, 1);
+        S3CryptoUploadSubscriber subscriber = client
+                .putObjectSubscriberWithPSK(new InitiateMultipartUploadRequest(BUCKET, "k"), psk);
+        new ArrayPublisher(content).subscribe(subscriber);
+        subscriber.get(30, TimeUnit.SECONDS);
+
+        S3Object obj = client.getObjectWithPSK(BUCKET, "k", psk);
+        assertTrue(budget.getReserved() > 0);
+        obj.close();
+        assertEquals(0, budget.getReserved());
+    }
+
+    private static InputStream encryptedWithPSK(byte[] content, byte[] psk) throws Exception {
+        InMemoryS3Client s3 = new InMemoryS3Client();
+        S3CryptoUploadSubscriber subscriber = new S3CryptoClient(s3)
+                .putObjectSubscriberWithPSK(new InitiateMultipartUploadRequest(BUCKET, "k"), psk);
+        new ArrayPublisher(content).subscribe(subscriber);
+        subscriber.get(30, TimeUnit.SECONDS);
+        return new ByteArrayInputStream(IOUtils.toByteArray(s3.getObject(BUCKET, "k").getObjectContent()));
+    }
+
+    private static void awaitWaiting(MemoryBudget budget, int count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (budget.getWaitingCount() < count) {
+            if (System.nanoTime() > deadline) {
+                fail("no reservation waiting");
+            }
+            Thread.sleep(5);
+        }
+    }
+
+    private static PutObjectRequest putRequest(String key, byte[] content) {
+        ObjectMetadata metadata = new ObjectMetadata();
+        metadata.setContentLength(content.length);
+        return new PutObjectRequest(BUCKET, key, new ByteArrayInputStream(content), metadata);
+    }
+
+    private static byte[] randomBytes(int length, long seed) {
+        byte[] bytes = new byte[length];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,78 @@
+package dp.s3crypto;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import dp.s3crypto.loadtest.InMemoryS3Client;
+
+public class PackTest {
+
+    private static final String BUCKET = "test";
+    private static final int SIZE = S3CryptoInputStream.SIZE;
+
+    /**
+     * Entries laid out so that they start and end either side of, and exactly
+     * on, chunk boundaries, and at offsets which are not cipher block aligned.
+     */
+    @Test
+    public void readsEntriesAcrossChunkBoundaries() throws Exception {
+        Map<String, byte[]> entries = new LinkedHashMap<String, byte[]>();
+        entries.put("first", randomBytes(1000, 1));
+        entries.put("crossing", randomBytes(SIZE, 2));
+        entries.put("unaligned", randomBytes(17, 3));
+        entries.put("empty", randomBytes(0, 4));
+        entries.put("spanning", randomBytes(2 * SIZE + 3, 5));
+        entries.put("ends-on-boundary", randomBytes(SIZE - 1020, 6));
+        entries.put("starts-on-boundary", randomBytes(10, 7));
+
+        S3CryptoClient client = new S3CryptoClient(new InMemoryS3Client(), new AESKeyWrapper(randomBytes(16, 0)));
+        S3CryptoPackWriter writer = client.newPackWriter(BUCKET, "pack");
+        for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+            writer.addEntry(entry.getKey(), entry.getValue());
+        }
+        writer.close();
+
+        assertEntries(entries, client.openPackReader(BUCKET, "pack"));
+    }
+
+    @Test
+    public void readsSingleChunkPackWithPSK() throws Exception {
+        Map<String, byte[]> entries = new LinkedHashMap<String, byte[]>();
+        for (int i = 0; i < 20; i++) {
+            entries.put("entry-" + i, randomBytes(i * 37, i));
+        }
+
+        byte[] psk = randomBytes(16, 0);
+        S3CryptoClient client = new S3CryptoClient(new InMemoryS3Client());
+        S3CryptoPackWriter writer = client.newPackWriterWithPSK(BUCKET, "pack", psk);
+        for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+            writer.addEntry(entry.getKey(), entry.getValue());
+        }
+        writer.close();
+
+        assertEntries(entries, client.openPackReaderWithPSK(BUCKET, "pack", psk));
+    }
+
+    private static void assertEntries(Map<String, byte[]> expected, S3CryptoPackReader reader) throws Exception {
+        assertEquals(expected.keySet(), reader.getEntryNames());
+        for (Map.Entry<String, byte[]> entry : expected.entrySet()) {
+            assertEquals(entry.getKey(), entry.getValue().length, reader.getEntryLength(entry.getKey()));
+            assertArrayEquals(entry.getKey(), entry.getValue(), reader.getEntry(entry.getKey()));
+        }
+        assertEquals(-1, reader.getEntryLength("missing"));
+        assertNull(reader.getEntry("missing"));
+    }
+
+    private static byte[] randomBytes(int length, long seed) {
+        byte[] bytes = new byte[length];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,127 @@
+package dp.s3crypto;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+
+import javax.crypto.Cipher;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import dp.s3crypto.loadtest.InMemoryS3Client;
+
+/**
+ * Reading the chunk format, where each chunk of plaintext is encrypted on its
+ * own, through the InputStream methods.
+ */
+public class S3CryptoInputStreamTest {
+
+    private static final int SIZE = S3CryptoInputStream.SIZE;
+    private static final int[] SIZES = { 0, 1, 100, SIZE - 1, SIZE, SIZE + 1, 2 * SIZE + 7 };
+
+    private final byte[] psk = randomBytes(16, 0);
+
+    @Test
+    public void readsArraysAcrossChunkBoundaries() throws Exception {
+        for (int size : SIZES) {
+            byte[] content = randomBytes(size, size);
+            S3CryptoInputStream in = new S3CryptoInputStream(encrypt(content), psk);
+
+            // an odd length and offset, so reads end at every position in a chunk
+            byte[] buffer = new byte[100003];
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            int n;
+            while ((n = in.read(buffer, 3, buffer.length - 3)) != -1) {
+                assertTrue(n > 0 && n <= buffer.length - 3);
+                out.write(buffer, 3, n);
+            }
+            assertArrayEquals("size " + size, content, out.toByteArray());
+            assertEquals(-1, in.read(buffer, 0, buffer.length));
+            in.close();
+        }
+    }
+
+    @Test
+    public void readsSingleBytesAcrossChunkBoundaries() throws Exception {
+        for (int size : SIZES) {
+            byte[] content = randomBytes(size, size);
+            S3CryptoInputStream in = new S3CryptoInputStream(encrypt(content), psk);
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            int b;
+            while ((b = in.read()) != -1) {
+                assertTrue(b >= 0 && b <= 255);
+                out.write(b);
+            }
+            assertArrayEquals("size " + size, content, out.toByteArray());
+            assertEquals(-1, in.read());
+            in.close();
+        }
+    }
+
+    @Test
+    public void zeroLengthReadReturnsZero() throws Exception {
+        byte[] content = randomBytes(100, 1);
+        S3CryptoInputStream in = new S3CryptoInputStream(encrypt(content), psk);
+        assertEquals(0, in.read(new byte[10], 0, 0));
+        assertArrayEquals(content, IOUtils.toByteArray(in));
+        assertEquals(0, in.read(new byte[10], 0, 0));
+        in.close();
+    }
+
+    @Test
+    public void verifiesPlainTextDigestAtEnd() throws Exception {
+        for (int size : SIZES) {
+            byte[] content = randomBytes(size, size);
+            S3CryptoInputStream in = new S3CryptoInputStream(encrypt(content), psk, DigestUtils.sha256Hex(content));
+            assertArrayEquals("size " + size, content, IOUtils.toByteArray(in));
+            in.close();
+        }
+    }
+
+    @Test
+    public void throwsWhenPlainTextDigestDoesNotMatch() throws Exception {
+        for (int size : SIZES) {
+            byte[] content = randomBytes(size, size);
+            S3CryptoInputStream in = new S3CryptoInputStream(encrypt(content), psk,
+                    DigestUtils.sha256Hex("other content"));
+            try {
+                IOUtils.toByteArray(in);
+                fail("read content which does not match its digest, size " + size);
+            } catch (IOException e) {
+                assertTrue(e.getMessage(), e.getMessage().contains("digest mismatch"));
+            } finally {
+                in.close();
+            }
+        }
+    }
+
+    /**
+     * Encrypts content in the chunk format, each chunk on its own with a new
+     * cipher.
+     */
+    private InputStream encrypt(byte[] content) throws Exception {
+        S3CryptoClient client = new S3CryptoClient(new InMemoryS3Client());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int off = 0; off < content.length; off += SIZE) {
+            Cipher cipher = client.newContentCipher(Cipher.ENCRYPT_MODE, psk);
+            out.write(cipher.doFinal(content, off, Math.min(SIZE, content.length - off)));
+        }
+        return new ByteArrayInputStream(out.toByteArray());
+    }
+
+    private static byte[] randomBytes(int length, long seed) {
+        byte[] bytes = new byte[length];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,158 @@
+package dp.s3crypto;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.S3Object;
+
+import dp.s3crypto.loadtest.ArrayPublisher;
+import dp.s3crypto.loadtest.InMemoryS3Client;
+
+/**
+ * Round trips between the publisher and subscriber and the blocking put and get
+ * methods which share their format, for objects of more than one chunk.
+ */
+public class StreamingTest {
+
+    private static final String BUCKET = "test";
+    private static final int SIZE = S3CryptoInputStream.SIZE;
+    private static final int[] SIZES = { 0, 100, SIZE, SIZE + 100, 2 * SIZE, 2 * SIZE + 7 };
+
+    private final InMemoryS3Client s3 = new InMemoryS3Client();
+    private final S3CryptoClient client = new S3CryptoClient(s3, new AESKeyWrapper(randomBytes(16, 0)));
+    private final byte[] psk = randomBytes(16, 1);
+
+    @Test
+    public void putObjectReadByPublisher() throws Exception {
+        for (int size : SIZES) {
+            byte[] content = randomBytes(size, size);
+            ObjectMetadata metadata = new ObjectMetadata();
+            metadata.setContentLength(size);
+            client.putObject(new PutObjectRequest(BUCKET, "k", new ByteArrayInputStream(content), metadata));
+
+            assertArrayEquals("size " + size, content,
+                    collect(client.getObjectPublisher(new GetObjectRequest(BUCKET, "k"))));
+        }
+    }
+
+    @Test
+    public void subscriberUploadReadByGetObject() throws Exception {
+        for (int size : SIZES) {
+            byte[] content = randomBytes(size, size);
+            upload(client.putObjectSubscriber(new InitiateMultipartUploadRequest(BUCKET, "k")), content);
+
+            S3Object obj = client.getObject(BUCKET, "k");
+            try {
+                assertArrayEquals("size " + size, content, IOUtils.toByteArray(obj.getObjectContent()));
+            } finally {
+                obj.close();
+            }
+            assertArrayEquals("size " + size, content,
+                    collect(client.getObjectPublisher(new GetObjectRequest(BUCKET, "k"))));
+        }
+    }
+
+    @Test
+    public void subscriberUploadWithPSKReadByGetObjectWithPSK() throws Exception {
+        for (int size : SIZES) {
+            byte[] content = randomBytes(size, size);
+            upload(client.putObjectSubscriberWithPSK(new InitiateMultipartUploadRequest(BUCKET, "k"), psk), content);
+
+            S3Object obj = client.getObjectWithPSK(BUCKET, "k", psk);
+            try {
+                assertArrayEquals("size " + size, content, IOUtils.toByteArray(obj.getObjectContent()));
+            } finally {
+                obj.close();
+            }
+            assertArrayEquals("size " + size, content,
+                    collect(client.getObjectPublisherWithPSK(new GetObjectRequest(BUCKET, "k"), psk)));
+        }
+    }
+
+    @Test
+    public void putObjectWithPSKReadByGetObjectWithPSK() throws Exception {
+        for (int size : SIZES) {
+            byte[] content = randomBytes(size, size);
+            ObjectMetadata metadata = new ObjectMetadata();
+            metadata.setContentLength(size);
+            client.putObjectWithPSK(new PutObjectRequest(BUCKET, "k", new ByteArrayInputStream(content), metadata),
+                    psk);
+
+            S3Object obj = client.getObjectWithPSK(BUCKET, "k", psk);
+            try {
+                assertArrayEquals("size " + size, content, IOUtils.toByteArray(obj.getObjectContent()));
+            } finally {
+                obj.close();
+            }
+            assertArrayEquals("size " + size, content,
+                    collect(client.getObjectPublisherWithPSK(new GetObjectRequest(BUCKET, "k"), psk)));
+        }
+    }
+
+    private static void upload(S3CryptoUploadSubscriber subscriber, byte[] content) throws Exception {
+        new ArrayPublisher(content).subscribe(subscriber);
+        subscriber.get(30, TimeUnit.SECONDS);
+    }
+
+    private static byte[] collect(S3CryptoFlow.Publisher<ByteBuffer> publisher) throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final CountDownLatch finished = new CountDownLatch(1);
+        final Throwable[] error = new Throwable[1];
+
+        publisher.subscribe(new S3CryptoFlow.Subscriber<ByteBuffer>() {
+            private S3CryptoFlow.Subscription subscription;
+
+            @Override
+            public void onSubscribe(S3CryptoFlow.Subscription subscription) {
+                this.subscription = subscription;
+                subscription.request(1);
+            }
+
+            @Override
+            public void onNext(ByteBuffer item) {
+                byte[] bytes = new byte[item.remaining()];
+                item.get(bytes);
+                out.write(bytes, 0, bytes.length);
+                subscription.request(1);
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                error[0] = throwable;
+                finished.countDown();
+            }
+
+            @Override
+            public void onComplete() {
+                finished.countDown();
+            }
+        });
+
+        if (!finished.await(30, TimeUnit.SECONDS)) {
+            throw new AssertionError("publisher did not finish");
+        }
+        if (error[0] != null) {
+            throw new AssertionError(error[0]);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] randomBytes(int length, long seed) {
+        byte[] bytes = new byte[length];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+}